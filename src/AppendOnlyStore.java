@@ -0,0 +1,358 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A durable home for an AppendOnlyTable : a file that nodes are only ever
+ * appended to.
+ *
+ * Like Fork.put(), every update to an AppendOnlyTable makes new nodes
+ * for the path from the root to the changed key, and shares everything
+ * else with the old tree. Those new nodes are exactly what the store
+ * writes : they are appended to the end of the file, children before
+ * parents (so each node can refer to its branches by file offset), and
+ * then the header is pointed at the new root. An update therefore writes
+ * O(height) bytes, however big the table is. Nodes already in the file
+ * are never changed, so a crash part way through an update leaves the
+ * header pointing at the last complete tree.
+ *
+ * open() only reads the header. Nodes are read in (and kept, as part of
+ * the table that reached them) the first time a lookup or update walks
+ * through them.
+ *
+ * Old versions of the tree stay in the file until compact() copies just
+ * the nodes of the current tree in to a new file. Tables taken from the
+ * store before a compaction can't be used afterwards; take a new one
+ * with table().
+ *
+ * The file format is :
+ *
+ *     header : "BSTA" (4 bytes), format version (4 bytes),
+ *              offset of the root (8 bytes, 0 if empty), number of entries (4 bytes)
+ *     nodes  : length of the node (4 bytes), height (4 bytes),
+ *              offset of the left branch (8 bytes, 0 if empty), offset of the right branch (8 bytes),
+ *              key, value (encoded by the Codecs)
+ *
+ * Every number is big-endian. A store is safe to use from several
+ * threads; updates are written one at a time.
+ */
+public class AppendOnlyStore<K extends Comparable<K>,V> implements Closeable {
+
+	private static final int MAGIC = 0x42535441; // "BSTA"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+	private static final int NODE_HEADER_SIZE = 24;
+
+	/*
+	 * Most nodes are small, so a read asks for this many bytes and only
+	 * goes back for more when the node turns out to be bigger.
+	 */
+	private static final int READ_AHEAD = 128;
+
+	private final Path file;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+
+	/*
+	 * The open file, where the next node goes, and how many times the file
+	 * has been compacted.
+	 */
+	private FileChannel channel;
+	private long end;
+	private int generation;
+	private AppendOnlyTable<K,V> current;
+
+	private AppendOnlyStore(Path file, Codec<K> keyCodec, Codec<V> valueCodec) {
+		this.file = file;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+	}
+
+	/**
+	 * Opens the store in file, creating an empty one if the file doesn't
+	 * exist. The codecs must be the ones the store was written with.
+	 *
+	 * @param file The file holding the store.
+	 * @param keyCodec How to encode the keys.
+	 * @param valueCodec How to encode the values.
+	 * @return The store.
+	 * @throws IOException If the file can't be opened, or isn't a store.
+	 */
+	public static <K extends Comparable<K>,V> AppendOnlyStore<K,V> open(Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		AppendOnlyStore<K,V> store = new AppendOnlyStore<K,V>(file, keyCodec, valueCodec);
+		store.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if(store.channel.size() == 0) {
+				store.writeHeader(0, 0);
+				store.channel.force(true);
+			}
+			store.load();
+		}
+		catch(IOException e) {
+			store.channel.close();
+			throw e;
+		}
+		return store;
+	}
+
+	/**
+	 * Reads the header of the open file, and makes the table it points at
+	 * the current one.
+	 */
+	private void load() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		if(header.getInt(0) != MAGIC) {
+			throw new IOException("Not an append-only store : " + this.file);
+		}
+		if(header.getInt(4) != VERSION) {
+			throw new IOException("Unsupported store version " + header.getInt(4) + " : " + this.file);
+		}
+		long root = header.getLong(8);
+		this.end = this.channel.size();
+		this.current = new AppendOnlyTable<K,V>(this, this.generation, (root == 0) ? null : read(root, this.generation), header.getInt(16));
+	}
+
+	/**
+	 * Returns the table as it was last written.
+	 *
+	 * @return The current table.
+	 */
+	public synchronized AppendOnlyTable<K,V> table() {
+		return this.current;
+	}
+
+	/**
+	 * Returns the size of the file, which grows with every update until the
+	 * next compaction.
+	 *
+	 * @return The number of bytes in the file.
+	 */
+	public synchronized long fileSize() {
+		return this.end;
+	}
+
+	/**
+	 * Appends every node of the tree at root which isn't in the file yet,
+	 * and then makes it the current tree. Called by AppendOnlyTable with
+	 * the result of each update.
+	 */
+	synchronized AppendOnlyTable<K,V> commit(Node<K,V> root, int size, int generation) {
+		checkGeneration(generation);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeNew(root, out, this.end);
+
+			this.channel.write(ByteBuffer.wrap(bytes.toByteArray()), this.end);
+			this.channel.force(false);
+			this.end += bytes.size();
+			writeHeader((root == null) ? 0 : root.offset, size);
+			this.channel.force(false);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.current = new AppendOnlyTable<K,V>(this, generation, root, size);
+		return this.current;
+	}
+
+	/**
+	 * Writes the nodes under n which haven't been written yet, children
+	 * first, giving each one its offset (start is the offset of the first
+	 * byte written to out). Nodes already in the file end the walk, so this
+	 * only visits the nodes made by the update.
+	 */
+	private void writeNew(Node<K,V> n, DataOutputStream out, long start) throws IOException {
+		if(n == null || n.offset != 0) return;
+		writeNew(n.left, out, start);
+		writeNew(n.right, out, start);
+		n.offset = start + out.size();
+		writeNode(n, out);
+	}
+
+	private void writeNode(Node<K,V> n, DataOutputStream out) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		this.keyCodec.write(n.entry.getKey(), data);
+		this.valueCodec.write(n.entry.getValue(), data);
+
+		out.writeInt(NODE_HEADER_SIZE + bytes.size());
+		out.writeInt(n.height);
+		out.writeLong((n.left != null) ? n.left.offset : n.leftOffset);
+		out.writeLong((n.right != null) ? n.right.offset : n.rightOffset);
+		bytes.writeTo(out);
+	}
+
+	private void writeHeader(long root, int size) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(root).putInt(size).flip();
+		while(header.hasRemaining()) {
+			this.channel.write(header, header.position());
+		}
+	}
+
+	/**
+	 * Reads the node at offset. Called by AppendOnlyTable the first time it
+	 * walks through a branch.
+	 */
+	synchronized Node<K,V> read(long offset, int generation) {
+		checkGeneration(generation);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(READ_AHEAD);
+			int read = this.channel.read(buffer, offset);
+			if(read < NODE_HEADER_SIZE) {
+				throw new EOFException("Truncated node at " + offset + " : " + this.file);
+			}
+			int length = buffer.getInt(0);
+			if(length > read) {
+				buffer = ByteBuffer.allocate(length);
+				readFully(buffer, offset);
+			}
+			buffer.position(4);
+			buffer.limit(length);
+			int height = buffer.getInt();
+			long left = buffer.getLong();
+			long right = buffer.getLong();
+			K key = this.keyCodec.read(buffer);
+			V value = this.valueCodec.read(buffer);
+			return new Node<K,V>(offset, new Entry<K,V>(key, value), height, left, right);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(this.channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of " + this.file);
+			}
+		}
+	}
+
+	private void checkGeneration(int generation) {
+		if(generation != this.generation) {
+			throw new IllegalStateException("The table was taken from the store before it was compacted");
+		}
+	}
+
+	/**
+	 * Rewrites the file with just the nodes of the current table, dropping
+	 * every old version. The new file is written next to the old one, synced,
+	 * and then moved over it. This reads the whole table, and takes O(n).
+	 *
+	 * Tables taken from the store before now can't be used afterwards.
+	 *
+	 * @throws IOException If the new file can't be written.
+	 */
+	public synchronized void compact() throws IOException {
+		Node<K,V> root = this.current.root();
+		Path directory = this.file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, this.file.getFileName().toString(), ".tmp");
+		try {
+			try(FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(compacted), 1 << 16));
+				out.write(new byte[HEADER_SIZE]);
+				long rootOffset = copy(root, out);
+				out.flush();
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putLong(rootOffset).putInt(this.current.size()).flip();
+				while(header.hasRemaining()) {
+					compacted.write(header, header.position());
+				}
+				compacted.force(true);
+			}
+			Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+
+		this.channel.close();
+		this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.generation++;
+		load();
+	}
+
+	/**
+	 * Writes the tree at n to out, children first, and returns the offset of
+	 * n in the new file (0 if n is empty). The bytes written so far, plus the
+	 * header, give each node's offset.
+	 */
+	private long copy(Node<K,V> n, DataOutputStream out) throws IOException {
+		if(n == null) return 0;
+		long left = copy(this.current.left(n), out);
+		long right = copy(this.current.right(n), out);
+		long offset = out.size();
+		writeNode(new Node<K,V>(offset, n.entry, n.height, left, right), out);
+		if(out.size() == Integer.MAX_VALUE) {
+			throw new IOException("Store is too big to compact : " + this.file);
+		}
+		return offset;
+	}
+
+	/**
+	 * Closes the file. The store and its tables can't be used afterwards.
+	 *
+	 * @throws IOException If the file can't be closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * A node of the tree. A node read from the file knows the offsets of its
+	 * branches, and keeps each branch once it has been read (left, right). A
+	 * new node made by an update has its branches as nodes, and an offset of
+	 * 0 until commit() writes it.
+	 */
+	static final class Node<K extends Comparable<K>,V> {
+		final Entry<K,V> entry;
+		final int height;
+		final long leftOffset, rightOffset;
+		volatile Node<K,V> left, right;
+		volatile long offset;
+
+		/**
+		 * A node read from the file.
+		 */
+		Node(long offset, Entry<K,V> entry, int height, long leftOffset, long rightOffset) {
+			this.offset = offset;
+			this.entry = entry;
+			this.height = height;
+			this.leftOffset = leftOffset;
+			this.rightOffset = rightOffset;
+		}
+
+		/**
+		 * A new node, which hasn't been written yet. Either branch may be null
+		 * (empty).
+		 */
+		Node(Entry<K,V> entry, Node<K,V> left, Node<K,V> right) {
+			this.entry = entry;
+			this.height = 1 + Math.max(height(left), height(right));
+			this.leftOffset = 0;
+			this.rightOffset = 0;
+			this.left = left;
+			this.right = right;
+		}
+
+		static int height(Node<?,?> n) {
+			return (n == null) ? -1 : n.height;
+		}
+	}
+}
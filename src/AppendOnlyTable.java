@@ -0,0 +1,310 @@
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * An immutable table which is saved to an AppendOnlyStore by every update.
+ *
+ * This is the same kind of tree as AvlFork : put() and remove() copy the
+ * path from the root to the changed key, rebalance it with rotations on
+ * the way back up, and share every other node with the old table. The
+ * new nodes are then appended to the store, which makes the new table
+ * the one the store opens with next time, and the new table is returned.
+ *
+ *     AppendOnlyStore<String,String> store = AppendOnlyStore.open(file, Codec.STRING, Codec.STRING);
+ *     AppendOnlyTable<String,String> table = store.table();
+ *     table = table.put("key", "value"); // Written to file before put() returns.
+ *
+ * Nodes are read from the store as lookups reach them, and kept from
+ * then on. Because old tables are never changed, an update to an older
+ * table works too; it just branches off from that version, and becomes
+ * the store's current table. put() and remove() throw an
+ * UncheckedIOException if the store can't be written to.
+ */
+public class AppendOnlyTable<K extends Comparable<K>,V> implements Table<K,V> {
+
+	private final AppendOnlyStore<K,V> store;
+	private final int generation;
+	private final AppendOnlyStore.Node<K,V> root;
+	private final int size;
+
+	/**
+	 * Tables are made by their store, with table() and commit().
+	 */
+	AppendOnlyTable(AppendOnlyStore<K,V> store, int generation, AppendOnlyStore.Node<K,V> root, int size) {
+		this.store = store;
+		this.generation = generation;
+		this.root = root;
+		this.size = size;
+	}
+
+	AppendOnlyStore.Node<K,V> root() {
+		return this.root;
+	}
+
+	/**
+	 * Returns the left branch of n, reading it from the store the first time.
+	 */
+	AppendOnlyStore.Node<K,V> left(AppendOnlyStore.Node<K,V> n) {
+		AppendOnlyStore.Node<K,V> left = n.left;
+		if(left == null && n.leftOffset != 0) {
+			left = this.store.read(n.leftOffset, this.generation);
+			n.left = left;
+		}
+		return left;
+	}
+
+	/**
+	 * Returns the right branch of n, reading it from the store the first time.
+	 */
+	AppendOnlyStore.Node<K,V> right(AppendOnlyStore.Node<K,V> n) {
+		AppendOnlyStore.Node<K,V> right = n.right;
+		if(right == null && n.rightOffset != 0) {
+			right = this.store.read(n.rightOffset, this.generation);
+			n.right = right;
+		}
+		return right;
+	}
+
+	/**
+	 * Returns the node with key k, or null.
+	 */
+	private AppendOnlyStore.Node<K,V> find(K k) {
+		AppendOnlyStore.Node<K,V> n = this.root;
+		while(n != null) {
+			int comparison = k.compareTo(n.entry.getKey());
+			if(comparison == 0) {
+				return n;
+			}
+			n = (comparison < 0) ? left(n) : right(n);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(K k) {
+		return find(k) != null;
+	}
+
+	@Override
+	public Optional<V> get(K k) {
+		AppendOnlyStore.Node<K,V> n = find(k);
+		return (n == null) ? Optional.empty() : Optional.of(n.entry.getValue());
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns a new table with k:v inserted, or with the value of k
+	 * replaced, after appending the new nodes to the store.
+	 *
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 * @return The updated table.
+	 */
+	@Override
+	public AppendOnlyTable<K,V> put(K k, V v) {
+		int size = containsKey(k) ? this.size : this.size + 1;
+		return this.store.commit(insert(this.root, k, v), size, this.generation);
+	}
+
+	/**
+	 * Returns a new table without k, after appending the new nodes to the
+	 * store, or Optional.empty() if k isn't in the table.
+	 *
+	 * @param k The key to remove.
+	 * @return The updated table, or Optional.empty().
+	 */
+	@Override
+	public Optional<Table<K,V>> remove(K k) {
+		if(!containsKey(k)) {
+			return Optional.empty();
+		}
+		return Optional.of(this.store.commit(delete(this.root, k), this.size - 1, this.generation));
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	private AppendOnlyStore.Node<K,V> insert(AppendOnlyStore.Node<K,V> n, K k, V v) {
+		if(n == null) {
+			return new AppendOnlyStore.Node<K,V>(new Entry<K,V>(k, v), null, null);
+		}
+		int comparison = k.compareTo(n.entry.getKey());
+		if(comparison < 0) {
+			return balance(n.entry, insert(left(n), k, v), right(n));
+		}
+		else if(comparison > 0) {
+			return balance(n.entry, left(n), insert(right(n), k, v));
+		}
+		return new AppendOnlyStore.Node<K,V>(new Entry<K,V>(k, v), left(n), right(n));
+	}
+
+	/**
+	 * Deletes k, which must be under n.
+	 */
+	private AppendOnlyStore.Node<K,V> delete(AppendOnlyStore.Node<K,V> n, K k) {
+		int comparison = k.compareTo(n.entry.getKey());
+		if(comparison < 0) {
+			return balance(n.entry, delete(left(n), k), right(n));
+		}
+		else if(comparison > 0) {
+			return balance(n.entry, left(n), delete(right(n), k));
+		}
+		/*
+		 * As in AvlFork.delete(), replace the root with the largest entry of
+		 * the left branch if both branches are there.
+		 */
+		if(left(n) == null) {
+			return right(n);
+		}
+		else if(right(n) == null) {
+			return left(n);
+		}
+		AppendOnlyStore.Node<K,V> largest = left(n);
+		while(right(largest) != null) largest = right(largest);
+		return balance(largest.entry, deleteLargest(left(n)), right(n));
+	}
+
+	private AppendOnlyStore.Node<K,V> deleteLargest(AppendOnlyStore.Node<K,V> n) {
+		if(right(n) == null) {
+			return left(n);
+		}
+		return balance(n.entry, left(n), deleteLargest(right(n)));
+	}
+
+	/**
+	 * Builds a node from root, left and right, whose heights may differ by
+	 * two, with a single or double rotation if they do. See AvlFork.balance().
+	 */
+	private AppendOnlyStore.Node<K,V> balance(Entry<K,V> root, AppendOnlyStore.Node<K,V> left, AppendOnlyStore.Node<K,V> right) {
+		int leftHeight = AppendOnlyStore.Node.height(left);
+		int rightHeight = AppendOnlyStore.Node.height(right);
+
+		if(leftHeight > rightHeight + 1) {
+			AppendOnlyStore.Node<K,V> ll = left(left);
+			AppendOnlyStore.Node<K,V> lr = right(left);
+			if(AppendOnlyStore.Node.height(ll) >= AppendOnlyStore.Node.height(lr)) {
+				return new AppendOnlyStore.Node<K,V>(left.entry, ll, new AppendOnlyStore.Node<K,V>(root, lr, right));
+			}
+			return new AppendOnlyStore.Node<K,V>(lr.entry,
+			                                     new AppendOnlyStore.Node<K,V>(left.entry, ll, left(lr)),
+			                                     new AppendOnlyStore.Node<K,V>(root, right(lr), right));
+		}
+		else if(rightHeight > leftHeight + 1) {
+			AppendOnlyStore.Node<K,V> rl = left(right);
+			AppendOnlyStore.Node<K,V> rr = right(right);
+			if(AppendOnlyStore.Node.height(rr) >= AppendOnlyStore.Node.height(rl)) {
+				return new AppendOnlyStore.Node<K,V>(right.entry, new AppendOnlyStore.Node<K,V>(root, left, rl), rr);
+			}
+			return new AppendOnlyStore.Node<K,V>(rl.entry,
+			                                     new AppendOnlyStore.Node<K,V>(root, left, left(rl)),
+			                                     new AppendOnlyStore.Node<K,V>(right.entry, right(rl), rr));
+		}
+		return new AppendOnlyStore.Node<K,V>(root, left, right);
+	}
+
+	/**
+	 * Returns the entries in key order, reading nodes from the store as they
+	 * are reached.
+	 *
+	 * @return An iterator over the entries.
+	 */
+	public Iterator<Entry<K,V>> iterator() {
+		return new Iterator<Entry<K,V>>() {
+			private final ArrayDeque<AppendOnlyStore.Node<K,V>> stack = pushLeft(new ArrayDeque<AppendOnlyStore.Node<K,V>>(), root);
+
+			@Override
+			public boolean hasNext() {
+				return !this.stack.isEmpty();
+			}
+
+			@Override
+			public Entry<K,V> next() {
+				if(this.stack.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				AppendOnlyStore.Node<K,V> n = this.stack.pop();
+				pushLeft(this.stack, right(n));
+				return n.entry;
+			}
+		};
+	}
+
+	private ArrayDeque<AppendOnlyStore.Node<K,V>> pushLeft(ArrayDeque<AppendOnlyStore.Node<K,V>> stack, AppendOnlyStore.Node<K,V> n) {
+		while(n != null) {
+			stack.push(n);
+			n = left(n);
+		}
+		return stack;
+	}
+
+	/**
+	 * Reads the whole table in to a BstTable of minimal height, in O(n).
+	 *
+	 * @return A BstTable with the entries of this table.
+	 */
+	public BstTable<K,V> toTable() {
+		return BstTable.fromSorted(iterator(), this.size);
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Iterator<Entry<K,V>> entries = AppendOnlyTable.this.iterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public V next() {
+						return entries.next().getValue();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return AppendOnlyTable.this.size;
+			}
+		};
+	}
+
+	@Override
+	public Collection<K> keys() {
+		return new AbstractCollection<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				Iterator<Entry<K,V>> entries = AppendOnlyTable.this.iterator();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public K next() {
+						return entries.next().getKey();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return AppendOnlyTable.this.size;
+			}
+		};
+	}
+}
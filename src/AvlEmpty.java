@@ -0,0 +1,54 @@
+/**
+ * The empty AVL tree.
+ * 
+ * This behaves exactly like Empty, except that put() builds an AvlFork
+ * rather than a Fork, so a tree that starts out as an AvlEmpty stays
+ * height-balanced on every put and delete. Use it as the starting point
+ * of a self-balancing table :
+ * 
+ *     Table<K,V> t = new BstTable<K,V>(AvlEmpty.<K,V>empty());
+ */
+public class AvlEmpty<K extends Comparable<K>,V> extends Empty<K,V> {
+
+	/**
+	 * The one shared empty AVL tree (see Empty.empty()).
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final AvlEmpty EMPTY = new AvlEmpty();
+
+	/**
+	 * Nothing to do in the constructor.
+	 *
+	 * Prefer AvlEmpty.empty(), which doesn't allocate.
+	 */
+	public AvlEmpty(){}
+
+	/**
+	 * Returns the shared empty AVL tree, used for every leaf of an AvlFork.
+	 *
+	 * @return The shared, typed, empty AVL tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<K>,V> AvlEmpty<K,V> empty() {
+		return (AvlEmpty<K,V>) EMPTY;
+	}
+
+	/**
+	 * Return an AvlFork with just a root, which
+	 * is an Entry consisting of the key:value
+	 * pair: k:v.
+	 */
+	@Override
+	public Bst<K,V> put(K k, V v) {
+		return new AvlFork<K,V>(k, v, AvlEmpty.<K,V>empty(), AvlEmpty.<K,V>empty());
+	}
+
+	/**
+	 * Always returns this AvlEmpty BST because
+	 * the empty BST is always balanced.
+	 */
+	@Override
+	public Bst<K,V> balanced() {
+		return this;
+	}
+}
@@ -0,0 +1,308 @@
+import java.lang.reflect.Array;
+import java.util.Optional;
+
+/**
+ * A self-balancing (AVL) version of Fork.
+ *
+ * The heights of the two branches of an AvlFork never differ by more
+ * than one (Fork stores the height of every node, so checking this is
+ * O(1)). put() and delete() rebuild the path
+ * from the root to the changed node exactly as Fork does, but each node
+ * on that path is rebalanced with a single or double rotation on the
+ * way back up. The height of the tree is therefore always O(log n), even
+ * for sorted input, and old versions of the tree are never modified.
+ *
+ * All of the read-only operations (has, find, smallest, saveInOrder...)
+ * are inherited from Fork.
+ */
+public class AvlFork<K extends Comparable<K>,V> extends Fork<K,V> {
+
+	/**
+	 * Creates a new instance of the AvlFork class, ensuring
+	 * that the new AvlFork wouldn't violate either the BST
+	 * property or the AVL property.
+	 * @param key The key for the root of the tree.
+	 * @param value The value for the root of the tree.
+	 * @param left The left branch for the tree.
+	 * @param right The right branch for the tree.
+	 */
+	public AvlFork(K key, V value, Bst<K,V> left, Bst<K,V> right) {
+		this(new Entry<K,V>(key, value), left, right);
+	}
+
+	/**
+	 * Creates a new instance of the AvlFork class which reuses an
+	 * existing Entry as its root.
+	 * @param root The Entry for the root of the tree.
+	 * @param left The left branch for the tree.
+	 * @param right The right branch for the tree.
+	 */
+	protected AvlFork(Entry<K,V> root, Bst<K,V> left, Bst<K,V> right) {
+		super(root, left, right);
+
+		assert(Math.abs(left.height() - right.height()) <= 1); //Don't violate the AVL property.
+	}
+
+	/**
+	 * Returns a copy of this tree with k:v inserted, or with the value
+	 * of k replaced if it is already there. The result is rebalanced.
+	 *
+	 * @return A balanced copy of this tree with the key:value pair, k:v, inserted.
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 */
+	@Override
+	public Bst<K,V> put(K k, V v) {
+		if(BstMetrics.ENABLED) BstMetrics.visited();
+		int comparison = compareToRoot(k);
+		if(comparison < 0) {
+			return balance(this.root, insert(this.left, k, v), this.right);
+		}
+		else if(comparison > 0) {
+			return balance(this.root, this.left, insert(this.right, k, v));
+		}
+		/*
+		 * Replacing a value doesn't change the shape of the tree.
+		 */
+		return new AvlFork<K,V>(k, v, this.left, this.right);
+	}
+
+	/**
+	 * Returns a copy of the tree, in which the node k has been deleted,
+	 * or Optional.empty() if the key k doesn't occur in the tree. The
+	 * result is rebalanced.
+	 *
+	 * @return A balanced copy of this tree with the Entry with key, k, deleted, or Optional.empty() if no such key exists.
+	 * @param k The key to delete from the tree.
+	 */
+	@Override
+	public Optional<Bst<K,V>> delete(K k) {
+		if(BstMetrics.ENABLED) BstMetrics.visited();
+		int comparison = compareToRoot(k);
+		if(comparison < 0) {
+			Optional<Bst<K,V>> left = this.left.delete(k);
+			if(!left.isPresent()) return Optional.empty();
+			return Optional.of(balance(this.root, left.get(), this.right));
+		}
+		else if(comparison > 0) {
+			Optional<Bst<K,V>> right = this.right.delete(k);
+			if(!right.isPresent()) return Optional.empty();
+			return Optional.of(balance(this.root, this.left, right.get()));
+		}
+		/*
+		 * We've found the node to delete. If either branch is empty we can
+		 * just return the other one, otherwise replace the root with the
+		 * largest entry of the left branch.
+		 */
+		if(this.left.isEmpty()) {
+			return Optional.of(this.right);
+		}
+		else if(this.right.isEmpty()) {
+			return Optional.of(this.left);
+		}
+		Entry<K,V> largest = this.left.largest().get();
+		return Optional.of(balance(largest, this.left.deleteLargest().get(), this.right));
+	}
+
+	/**
+	 * Returns a new tree with the element with the smallest key deleted.
+	 *
+	 * @return A balanced copy of this tree without its smallest key.
+	 */
+	@Override
+	public Optional<Bst<K,V>> deleteSmallest() {
+		/*
+		 * Walk down the left spine, so no comparisons are needed.
+		 */
+		if(this.left.isEmpty()) {
+			return Optional.of(this.right);
+		}
+		return Optional.of(balance(this.root, this.left.deleteSmallest().get(), this.right));
+	}
+
+	/**
+	 * Returns a new tree with the element with the largest key deleted.
+	 *
+	 * @return A balanced copy of this tree without its largest key.
+	 */
+	@Override
+	public Optional<Bst<K,V>> deleteLargest() {
+		/*
+		 * Walk down the right spine, so no comparisons are needed.
+		 */
+		if(this.right.isEmpty()) {
+			return Optional.of(this.left);
+		}
+		return Optional.of(balance(this.root, this.left, this.right.deleteLargest().get()));
+	}
+
+	/**
+	 * Returns the part of this tree with keys smaller than to (or equal to
+	 * it, if inclusive). As Fork.headTree(), but the subtrees along the cut
+	 * are put back together with join(), so the result is a balanced AVL
+	 * tree too. The joins along the path take O(height) in total.
+	 *
+	 * @return The entries of this tree up to to.
+	 * @param to The upper bound.
+	 * @param inclusive Whether the entry with key to, if any, is included.
+	 */
+	@Override
+	public Bst<K,V> headTree(K to, boolean inclusive) {
+		int comparison = this.largest().get().getKey().compareTo(to);
+		if(comparison < 0 || (comparison == 0 && inclusive)) {
+			return this;
+		}
+		comparison = this.getRootKey().compareTo(to);
+		if(comparison < 0 || (comparison == 0 && inclusive)) {
+			return join(this.left, this.root, this.right.headTree(to, inclusive));
+		}
+		return this.left.headTree(to, inclusive);
+	}
+
+	/**
+	 * Returns the part of this tree with keys bigger than from (or equal
+	 * to it, if inclusive), as a balanced AVL tree. This is the mirror
+	 * image of headTree().
+	 *
+	 * @return The entries of this tree from from.
+	 * @param from The lower bound.
+	 * @param inclusive Whether the entry with key from, if any, is included.
+	 */
+	@Override
+	public Bst<K,V> tailTree(K from, boolean inclusive) {
+		int comparison = this.smallest().get().getKey().compareTo(from);
+		if(comparison > 0 || (comparison == 0 && inclusive)) {
+			return this;
+		}
+		comparison = this.getRootKey().compareTo(from);
+		if(comparison > 0 || (comparison == 0 && inclusive)) {
+			return join(this.left.tailTree(from, inclusive), this.root, this.right);
+		}
+		return this.right.tailTree(from, inclusive);
+	}
+
+	/**
+	 * Returns a copy of this tree with minimal height. The result is
+	 * still made of AvlForks, so it keeps balancing itself afterwards.
+	 *
+	 * @return A balanced copy of the current tree.
+	 */
+	@Override
+	public Bst<K,V> balanced() {
+		@SuppressWarnings("unchecked")
+		Entry<K,V>[] entries = (Entry<K,V>[]) Array.newInstance(this.root.getClass(), this.size());
+		this.saveInOrder(entries);
+		return build(entries, 0, entries.length);
+	}
+
+	/**
+	 * Builds an AVL tree of minimal height from entries which are already
+	 * sorted by key, in O(n).
+	 *
+	 * @param entries The entries, in strictly increasing key order.
+	 * @return A tree made of AvlForks, or AvlEmpty if there are no entries.
+	 */
+	static <K extends Comparable<K>,V> Bst<K,V> fromSorted(Entry<K,V>[] entries) {
+		return build(entries, 0, entries.length);
+	}
+
+	/**
+	 * Builds a tree of minimal height from the sorted entries a[start..end).
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V> build(Entry<K,V>[] a, int start, int end) {
+		if(start == end) return AvlEmpty.<K,V>empty();
+		int middle = (start + end) >>> 1;
+		return new AvlFork<K,V>(a[middle], build(a, start, middle), build(a, middle + 1, end));
+	}
+
+	/**
+	 * Inserts k:v in to the branch t. An empty branch becomes a new leaf,
+	 * whatever kind of Empty it is, so that an AvlFork never grows a plain
+	 * Fork underneath it.
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V> insert(Bst<K,V> t, K k, V v) {
+		if(t.isEmpty()) {
+			return new AvlFork<K,V>(k, v, AvlEmpty.<K,V>empty(), AvlEmpty.<K,V>empty());
+		}
+		return t.put(k, v);
+	}
+
+	/**
+	 * Builds the node with the given root and branches, whose heights may
+	 * differ by at most two (as they do after a single put or delete), and
+	 * restores the AVL property with a single or double rotation.
+	 *
+	 *  Single rotation (left branch too tall, left-left case) :
+	 *
+	 *          k                 l
+	 *         / \               / \
+	 *        l   r     ==>     a   k
+	 *       / \                   / \
+	 *      a   b                 b   r
+	 *
+	 *  The double rotation first rotates b up in to l's place. Entries are
+	 *  reused, so a rotation only allocates the new nodes.
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V> balance(Entry<K,V> root, Bst<K,V> left, Bst<K,V> right) {
+		int leftHeight = left.height();
+		int rightHeight = right.height();
+
+		if(leftHeight > rightHeight + 1) {
+			/*
+			 * The left branch is too tall. It can't be Empty, so it is an AvlFork.
+			 */
+			Fork<K,V> l = (Fork<K,V>) left;
+			if(l.left.height() >= l.right.height()) {
+				return new AvlFork<K,V>(l.root, l.left, new AvlFork<K,V>(root, l.right, right));
+			}
+			Fork<K,V> lr = (Fork<K,V>) l.right;
+			return new AvlFork<K,V>(lr.root,
+			                        new AvlFork<K,V>(l.root, l.left, lr.left),
+			                        new AvlFork<K,V>(root, lr.right, right));
+		}
+		else if(rightHeight > leftHeight + 1) {
+			/*
+			 * The right branch is too tall. This is the mirror image of the above.
+			 */
+			Fork<K,V> r = (Fork<K,V>) right;
+			if(r.right.height() >= r.left.height()) {
+				return new AvlFork<K,V>(r.root, new AvlFork<K,V>(root, left, r.left), r.right);
+			}
+			Fork<K,V> rl = (Fork<K,V>) r.left;
+			return new AvlFork<K,V>(rl.root,
+			                        new AvlFork<K,V>(root, left, rl.left),
+			                        new AvlFork<K,V>(r.root, rl.right, r.right));
+		}
+		/*
+		 * Already balanced.
+		 */
+		return new AvlFork<K,V>(root, left, right);
+	}
+
+	/**
+	 * Joins two AVL trees with a root entry in between, whatever their
+	 * heights : every key of left must be smaller than the root's, and every
+	 * key of right bigger. We walk down the right spine of the taller tree
+	 * (the left spine, if right is taller) until we reach a subtree about as
+	 * tall as the other tree, hang the two together there, and rebalance on
+	 * the way back up. This takes O(|height(left) - height(right)| + 1).
+	 *
+	 * @param left An AVL tree with keys smaller than root's.
+	 * @param root The entry to put between the two trees.
+	 * @param right An AVL tree with keys bigger than root's.
+	 * @return A balanced AVL tree with all of the entries.
+	 */
+	static <K extends Comparable<K>,V> Bst<K,V> join(Bst<K,V> left, Entry<K,V> root, Bst<K,V> right) {
+		int leftHeight = left.height();
+		int rightHeight = right.height();
+		if(leftHeight > rightHeight + 1) {
+			Fork<K,V> l = (Fork<K,V>) left;
+			return balance(l.root, l.left, join(l.right, root, right));
+		}
+		else if(rightHeight > leftHeight + 1) {
+			Fork<K,V> r = (Fork<K,V>) right;
+			return balance(r.root, join(left, root, r.left), r.right);
+		}
+		return new AvlFork<K,V>(root, left, right);
+	}
+}
@@ -23,7 +23,7 @@
 
 import java.util.*;
 
-public interface Bst<Key extends Comparable<Key>,Value> {
+public interface Bst<Key extends Comparable<Key>,Value> extends Iterable<Entry<Key,Value>> {
   public boolean                    isEmpty();
   public boolean                    smaller(Key k); 
   public boolean                    bigger(Key k);  
@@ -47,6 +47,18 @@ public interface Bst<Key extends Comparable<Key>,Value> {
   public Optional<Value>            getValue();
   public Optional<Bst<Key,Value>>   getLeft();
   public Optional<Bst<Key,Value>>   getRight();
+  public int                        rank(Key k);
+  public Optional<Entry<Key,Value>> select(int i);
+  public Iterator<Entry<Key,Value>> iterator();
+  public Spliterator<Entry<Key,Value>> spliterator();
+  public Bst<Key,Value>             headTree(Key to, boolean inclusive);
+  public Bst<Key,Value>             tailTree(Key from, boolean inclusive);
+  public Optional<Entry<Key,Value>> floorEntry(Key k);
+  public Optional<Entry<Key,Value>> ceilingEntry(Key k);
+  public Optional<Entry<Key,Value>> lowerEntry(Key k);
+  public Optional<Entry<Key,Value>> higherEntry(Key k);
+  public long                       contentHash();
+  public long                       prefixHash(Key k);
 }
 
 // * fancyToString() is not assessed, but mandatory. You will use it
@@ -160,4 +172,79 @@ public interface Bst<Key extends Comparable<Key>,Value> {
       ambiguously, a tree with same key-value pairs but with minimal
       height).
 
+   -------------------------------------------------------------------
+   int rank(Key k);
+
+      How many keys in this tree are smaller than k? If k is in the
+      tree, this is its position in key order (counting from 0).
+
+   -------------------------------------------------------------------
+   Optional<Entry<Key,Value>> select(int i);
+
+      Returns the entry with the i-th smallest key (counting from 0),
+      if 0 <= i < size(). select(rank(k)) is the entry of k, if present.
+
+   -------------------------------------------------------------------
+   Iterator<Entry<Key,Value>> iterator();
+
+      Returns the entries in key order, lazily : unlike saveInOrder(),
+      nothing is copied, and only O(height) extra space is used.
+
+   -------------------------------------------------------------------
+   Spliterator<Entry<Key,Value>> spliterator();
+
+      Returns the entries in key order, splitting along the left and
+      right branches of the tree for parallel streams.
+
+   -------------------------------------------------------------------
+   Bst<Key,Value> headTree(Key to, boolean inclusive);
+
+      Returns a tree with just the entries whose keys are smaller than
+      (or equal to, if inclusive) to. Only O(height) new nodes are
+      built : subtrees entirely inside the range are shared.
+
+   -------------------------------------------------------------------
+   Bst<Key,Value> tailTree(Key from, boolean inclusive);
+
+      The same, for keys bigger than (or equal to) from.
+
+   -------------------------------------------------------------------
+   Optional<Entry<Key,Value>> floorEntry(Key k);
+
+      Returns the entry with the largest key smaller than or equal to k,
+      if it exists.
+
+   -------------------------------------------------------------------
+   Optional<Entry<Key,Value>> ceilingEntry(Key k);
+
+      Returns the entry with the smallest key bigger than or equal to k,
+      if it exists.
+
+   -------------------------------------------------------------------
+   Optional<Entry<Key,Value>> lowerEntry(Key k);
+
+      Returns the entry with the largest key strictly smaller than k,
+      if it exists.
+
+   -------------------------------------------------------------------
+   Optional<Entry<Key,Value>> higherEntry(Key k);
+
+      Returns the entry with the smallest key strictly bigger than k,
+      if it exists.
+
+   -------------------------------------------------------------------
+   long contentHash();
+
+      A 64-bit hash of the entries of the tree, which is the sum of a
+      hash of each entry (of its key's and value's hashCode()). Trees
+      with the same entries have the same contentHash(), whatever their
+      shape, and it is stored in each node, so this is O(1).
+
+   -------------------------------------------------------------------
+   long prefixHash(Key k);
+
+      The sum of the entry hashes of the keys smaller than k, as rank()
+      is their number. The hash of a range of keys is the difference of
+      two of these.
+
  */
@@ -0,0 +1,711 @@
+// Regression benchmarks for the Bst and Table implementations.
+//
+//     $ javac -Xlint BstBenchmarks.java
+//     $ java -Xmx3g BstBenchmarks [benchmark] [minExponent] [maxExponent]
+//
+// benchmark is one of "lookups", "puts", "allocation", "balanced",
+// "primitive", "frozen", "snapshot", "wal", "concurrent", "sharded",
+// "diff" or "operations", or "all" (the default). "operations" covers
+// every main operation over each key distribution and key type, so it is
+// the one to run to check a performance claim about Fork or BstTable.
+// Sizes run from 10^minExponent to 10^maxExponent (10^3 to 10^7 by
+// default). These are plain wall-clock measurements, so treat the
+// numbers as a trend rather than as absolute figures. Run without -ea
+// unless you are measuring the cost of the constructor assertions.
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class BstBenchmarks {
+
+  private static final int LOOKUPS = 1000000;
+
+  /*
+   * Results are written here so that the JIT can't optimise the work away.
+   */
+  private static volatile int sink;
+
+  public static void main(String[] args) {
+    String benchmark = (args.length > 0) ? args[0] : "all";
+    int minExponent = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+    int maxExponent = (args.length > 2) ? Integer.parseInt(args[2]) : 7;
+    boolean all = benchmark.equals("all");
+
+    if(all || benchmark.equals("lookups")) lookups(minExponent, maxExponent);
+    if(all || benchmark.equals("puts")) puts(minExponent, maxExponent);
+    if(all || benchmark.equals("allocation")) allocation(minExponent, maxExponent);
+    if(all || benchmark.equals("balanced")) balanced(minExponent, maxExponent);
+    if(all || benchmark.equals("primitive")) primitive(minExponent, maxExponent);
+    if(all || benchmark.equals("frozen")) frozen(minExponent, maxExponent);
+    if(all || benchmark.equals("snapshot")) snapshot(minExponent, maxExponent);
+    if(all || benchmark.equals("wal")) wal();
+    if(all || benchmark.equals("concurrent")) concurrent();
+    if(all || benchmark.equals("sharded")) sharded();
+    if(all || benchmark.equals("diff")) diff(minExponent, maxExponent);
+    if(all || benchmark.equals("operations")) operations(minExponent, maxExponent);
+  }
+
+  /*
+   * Lookup cost should follow the height of the tree, not its size. For each
+   * size we build a tree of random keys, and then measure both the number of
+   * comparisons and the time taken per has()/find() call.
+   */
+  private static void lookups(int minExponent, int maxExponent) {
+    System.out.println("-----Lookups (has/find)-----");
+    System.out.println("size\theight\tcompares/lookup\tns/lookup");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      Random random = new Random(e);
+      Bst<CountingKey,Integer> tree = Empty.empty();
+      for(int i = 0; i < n; i++) {
+        int k = random.nextInt();
+        tree = tree.put(new CountingKey(k), k);
+      }
+
+      CountingKey[] probes = new CountingKey[LOOKUPS];
+      for(int i = 0; i < LOOKUPS; i++) probes[i] = new CountingKey(random.nextInt());
+
+      /*
+       * Warm up, then measure.
+       */
+      int found = 0;
+      for(int i = 0; i < LOOKUPS; i++) if(tree.has(probes[i])) found++;
+      CountingKey.comparisons = 0;
+      long start = System.nanoTime();
+      for(int i = 0; i < LOOKUPS; i++) {
+        if(tree.has(probes[i])) found++;
+        if(tree.find(probes[i]).isPresent()) found++;
+      }
+      long elapsed = System.nanoTime() - start;
+
+      System.out.println(n + "\t" + tree.height() + "\t"
+                         + String.format("%.1f", CountingKey.comparisons / (2.0 * LOOKUPS)) + "\t\t"
+                         + String.format("%.1f", elapsed / (2.0 * LOOKUPS)));
+      sink = found;
+    }
+    System.out.println("");
+  }
+
+  /*
+   * Put throughput for Fork and AvlFork. Run this once with -ea and once
+   * without : every put rebuilds O(height) nodes, and each constructor checks
+   * the BST property, so with assertions on this used to cost O(n) per node.
+   */
+  private static void puts(int minExponent, int maxExponent) {
+    boolean assertions = false;
+    assert(assertions = true);
+    System.out.println("-----Puts (assertions " + (assertions ? "on" : "off") + ")-----");
+    System.out.println("size\tFork ns/put\tAvlFork ns/put");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      int[] keys = new Random(e).ints(n).toArray();
+      System.out.println(n + "\t" + String.format("%.1f", putAll(Empty.<Integer,Integer>empty(), keys)) + "\t\t"
+                         + String.format("%.1f", putAll(AvlEmpty.<Integer,Integer>empty(), keys)));
+    }
+    System.out.println("");
+  }
+
+  private static double putAll(Bst<Integer,Integer> tree, int[] keys) {
+    long start = System.nanoTime();
+    for(int k : keys) tree = tree.put(k, k);
+    long elapsed = System.nanoTime() - start;
+    sink = tree.size();
+    return elapsed / (double) keys.length;
+  }
+
+  /*
+   * Bytes allocated per put (measured by the JVM for this thread) and bytes
+   * retained per entry once the tree is built.
+   */
+  private static void allocation(int minExponent, int maxExponent) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    System.out.println("-----Allocation (Fork)-----");
+    System.out.println("size\tbytes/put\tretained bytes/entry");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      int[] keys = new Random(e).ints(n).toArray();
+      Integer[] boxed = new Integer[n];
+      for(int i = 0; i < n; i++) boxed[i] = keys[i];
+
+      long before = usedHeap();
+      long allocated = threads.getThreadAllocatedBytes(thread);
+      Bst<Integer,Integer> tree = Empty.empty();
+      for(int i = 0; i < n; i++) tree = tree.put(boxed[i], boxed[i]);
+      allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+      long retained = usedHeap() - before;
+
+      System.out.println(n + "\t" + String.format("%.1f", allocated / (double) n) + "\t\t"
+                         + String.format("%.1f", retained / (double) n));
+      sink = tree.size();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * balanced() should be linear : both the time and the bytes allocated per
+   * entry should stay flat as the tree grows.
+   */
+  private static void balanced(int minExponent, int maxExponent) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    System.out.println("-----balanced()-----");
+    System.out.println("size\tns/entry\tbytes/entry");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      Random random = new Random(e);
+      Bst<Integer,Integer> tree = Empty.empty();
+      for(int i = 0; i < n; i++) {
+        int k = random.nextInt();
+        tree = tree.put(k, k);
+      }
+      sink = tree.balanced().size();
+
+      long allocated = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      Bst<Integer,Integer> balanced = tree.balanced();
+      long elapsed = System.nanoTime() - start;
+      allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+      System.out.println(n + "\t" + String.format("%.1f", elapsed / (double) n) + "\t\t"
+                         + String.format("%.1f", allocated / (double) n));
+      sink = balanced.height();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * IntBst against Bst<Integer,...> : bytes retained per entry, and the time
+   * per lookup, for the same balanced trees of random keys.
+   */
+  private static void primitive(int minExponent, int maxExponent) {
+    System.out.println("-----IntBst vs Bst<Integer,Integer>-----");
+    System.out.println("size\tBst bytes/entry\tIntBst bytes/entry\tBst ns/lookup\tIntBst ns/lookup");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      int[] keys = new Random(e).ints(n).toArray();
+      Integer[] values = new Integer[n];
+      for(int i = 0; i < n; i++) values[i] = i;
+
+      long before = usedHeap();
+      Bst<Integer,Integer> generic = Empty.empty();
+      for(int i = 0; i < n; i++) generic = generic.put(keys[i], values[i]);
+      generic = generic.balanced();
+      long genericBytes = usedHeap() - before;
+
+      before = usedHeap();
+      IntBst<Integer> primitive = IntEmpty.empty();
+      for(int i = 0; i < n; i++) primitive = primitive.put(keys[i], values[i]);
+      primitive = primitive.balanced();
+      long primitiveBytes = usedHeap() - before;
+
+      int[] probes = new Random(-e).ints(LOOKUPS, 0, n).map(i -> keys[i]).toArray();
+      Integer[] boxedProbes = new Integer[LOOKUPS];
+      for(int i = 0; i < LOOKUPS; i++) boxedProbes[i] = probes[i];
+      int found = 0;
+      for(int round = 0; round < 2; round++) {
+        for(int i = 0; i < LOOKUPS; i++) if(generic.has(boxedProbes[i])) found++;
+        for(int i = 0; i < LOOKUPS; i++) if(primitive.has(probes[i])) found++;
+      }
+      long start = System.nanoTime();
+      for(int i = 0; i < LOOKUPS; i++) if(generic.has(boxedProbes[i])) found++;
+      long genericTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for(int i = 0; i < LOOKUPS; i++) if(primitive.has(probes[i])) found++;
+      long primitiveTime = System.nanoTime() - start;
+
+      System.out.println(n + "\t" + String.format("%.1f", genericBytes / (double) n) + "\t\t"
+                         + String.format("%.1f", primitiveBytes / (double) n) + "\t\t\t"
+                         + String.format("%.1f", genericTime / (double) LOOKUPS) + "\t\t"
+                         + String.format("%.1f", primitiveTime / (double) LOOKUPS));
+      sink = found + generic.size() + primitive.size();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * FrozenTable against the BstTable it was frozen from : the time per get()
+   * for the same random keys, and the time taken by freeze() itself.
+   */
+  private static void frozen(int minExponent, int maxExponent) {
+    System.out.println("-----FrozenTable vs BstTable-----");
+    System.out.println("size	freeze ns/entry	BstTable ns/lookup	FrozenTable ns/lookup");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      int[] keys = new Random(e).ints(n).toArray();
+      Bst<Integer,Integer> tree = Empty.empty();
+      for(int i = 0; i < n; i++) tree = tree.put(keys[i], i);
+      BstTable<Integer,Integer> table = new BstTable<Integer,Integer>(tree.balanced());
+
+      long start = System.nanoTime();
+      FrozenTable<Integer,Integer> frozen = table.freeze();
+      long freezeTime = System.nanoTime() - start;
+
+      Integer[] probes = new Integer[LOOKUPS];
+      Random random = new Random(-e);
+      for(int i = 0; i < LOOKUPS; i++) probes[i] = keys[random.nextInt(n)];
+      int found = 0;
+      for(int round = 0; round < 2; round++) {
+        for(int i = 0; i < LOOKUPS; i++) if(table.containsKey(probes[i])) found++;
+        for(int i = 0; i < LOOKUPS; i++) if(frozen.containsKey(probes[i])) found++;
+      }
+      start = System.nanoTime();
+      for(int i = 0; i < LOOKUPS; i++) if(table.containsKey(probes[i])) found++;
+      long tableTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for(int i = 0; i < LOOKUPS; i++) if(frozen.containsKey(probes[i])) found++;
+      long frozenTime = System.nanoTime() - start;
+
+      System.out.println(n + "\t" + String.format("%.1f", freezeTime / (double) n) + "\t\t"
+                         + String.format("%.1f", tableTime / (double) LOOKUPS) + "\t\t\t"
+                         + String.format("%.1f", frozenTime / (double) LOOKUPS));
+      sink = found + frozen.size();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * Startup cost : rebuilding a table by replaying its puts, against opening
+   * a snapshot of it with MappedTable. Opening should take the same time
+   * whatever the size; lookups then pay for paging in the file.
+   */
+  private static void snapshot(int minExponent, int maxExponent) {
+    System.out.println("-----MappedTable snapshots-----");
+    System.out.println("size	replay ms	write ms	open ms	MappedTable ns/lookup");
+    try {
+      Path file = Files.createTempFile("snapshot", ".bsts");
+      for(int e = minExponent; e <= maxExponent; e++) {
+        int n = pow10(e);
+        int[] keys = new Random(e).ints(n).toArray();
+
+        long start = System.nanoTime();
+        BstTableBuilder<Integer,Integer> builder = new BstTable<Integer,Integer>().toBuilder();
+        for(int i = 0; i < n; i++) builder.put(keys[i], i);
+        BstTable<Integer,Integer> table = builder.build();
+        long replayTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        MappedTable.write(table, file, Codec.INT, Codec.INT);
+        long writeTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        MappedTable<Integer,Integer> mapped = MappedTable.open(file, Codec.INT, Codec.INT);
+        long openTime = System.nanoTime() - start;
+
+        Random random = new Random(-e);
+        int found = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < LOOKUPS; i++) if(mapped.containsKey(keys[random.nextInt(n)])) found++;
+        long lookupTime = System.nanoTime() - start;
+
+        System.out.println(n + "\t" + String.format("%.1f", replayTime / 1e6) + "\t\t"
+                           + String.format("%.1f", writeTime / 1e6) + "\t\t"
+                           + String.format("%.2f", openTime / 1e6) + "\t"
+                           + String.format("%.1f", lookupTime / (double) LOOKUPS));
+        sink = found + table.size();
+      }
+      Files.delete(file);
+    }
+    catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    System.out.println("");
+  }
+
+  /*
+   * DurableTable throughput on local disk (the temporary directory) with
+   * fsync on every commit : first with one writer committing batches of
+   * different sizes, then with several writers each putting one entry at a
+   * time, which group commit should turn in to shared fsyncs.
+   */
+  private static void wal() {
+    final int puts = 20000;
+    System.out.println("-----DurableTable write-ahead log-----");
+    System.out.println("batch size	puts/s");
+    try {
+      for(int batchSize = 1; batchSize <= 1000; batchSize *= 10) {
+        Path directory = Files.createTempDirectory("wal");
+        DurableTable<Integer,Integer> table = DurableTable.open(directory, Codec.INT, Codec.INT);
+        long start = System.nanoTime();
+        for(int i = 0; i < puts; i += batchSize) {
+          DurableTable.Batch<Integer,Integer> batch = new DurableTable.Batch<Integer,Integer>();
+          for(int j = i; j < i + batchSize; j++) batch.put(j, j);
+          table.commit(batch);
+        }
+        long elapsed = System.nanoTime() - start;
+        table.close();
+        delete(directory);
+        System.out.println(batchSize + "\t\t" + String.format("%.0f", puts / (elapsed / 1e9)));
+      }
+
+      System.out.println("writers\tputs/s");
+      for(int writers = 1; writers <= 16; writers *= 4) {
+        Path directory = Files.createTempDirectory("wal");
+        DurableTable<Integer,Integer> table = DurableTable.open(directory, Codec.INT, Codec.INT);
+        Thread[] threads = new Thread[writers];
+        for(int w = 0; w < writers; w++) {
+          final int first = w * (puts / writers);
+          final int last = first + (puts / writers);
+          threads[w] = new Thread(() -> { for(int i = first; i < last; i++) table.put(i, i); });
+        }
+        long start = System.nanoTime();
+        for(Thread thread : threads) thread.start();
+        for(Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+        table.close();
+        delete(directory);
+        System.out.println(writers + "\t" + String.format("%.0f", puts / (elapsed / 1e9)));
+      }
+    }
+    catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * ConcurrentBstTable throughput with 1 to 16 threads, each putting random
+   * keys in to a table of 10^5 entries, with plain compare-and-set and with
+   * flat combining. Each thread also does one get() per put.
+   */
+  private static void concurrent() {
+    final int puts = 400000;
+    final int size = 100000;
+    System.out.println("-----ConcurrentBstTable-----");
+    System.out.println("threads\tCAS ops/s\tCOMBINING ops/s");
+    Bst<Integer,Integer> initial = AvlEmpty.empty();
+    for(int i = 0; i < size; i++) initial = initial.put(2 * i, i);
+    try {
+      for(int threads = 1; threads <= 16; threads *= 2) {
+        StringBuilder line = new StringBuilder(Integer.toString(threads));
+        for(ConcurrentBstTable.Mode mode : ConcurrentBstTable.Mode.values()) {
+          ConcurrentBstTable<Integer,Integer> table = new ConcurrentBstTable<Integer,Integer>(initial, mode);
+          Thread[] workers = new Thread[threads];
+          for(int t = 0; t < threads; t++) {
+            final int[] keys = new Random(t).ints(puts / threads, 0, 2 * size).toArray();
+            workers[t] = new Thread(() -> {
+              int found = 0;
+              for(int k : keys) {
+                table.put(k, k);
+                if(table.containsKey(k ^ 1)) found++;
+              }
+              sink = found;
+            });
+          }
+          long start = System.nanoTime();
+          for(Thread worker : workers) worker.start();
+          for(Thread worker : workers) worker.join();
+          long elapsed = System.nanoTime() - start;
+          line.append("\t" + String.format("%.0f", 2 * puts / (elapsed / 1e9)) + "\t");
+        }
+        System.out.println(line);
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * Put throughput from 1 to 64 threads, each putting random keys, in to one
+   * ConcurrentBstTable and in to ShardedTables of 64 shards split by range
+   * and by hash. Writers to the single root keep failing each other's
+   * compare-and-set, so it should fall behind as threads (and cores) grow.
+   */
+  private static void sharded() {
+    final int puts = 400000;
+    final int shards = 64;
+    System.out.println("-----ShardedTable (CAS, " + shards + " shards)-----");
+    System.out.println("threads\t1 root puts/s\trange puts/s\thash puts/s");
+    java.util.List<Integer> splits = new java.util.ArrayList<Integer>();
+    for(int i = 1; i < shards; i++) splits.add(i * (Integer.MAX_VALUE / shards));
+    try {
+      for(int threads = 1; threads <= 64; threads *= 2) {
+        ShardedTable<Integer,Integer> single = ShardedTable.byRange(java.util.Collections.<Integer>emptyList(), ConcurrentBstTable.Mode.CAS);
+        ShardedTable<Integer,Integer> range = ShardedTable.byRange(splits, ConcurrentBstTable.Mode.CAS);
+        ShardedTable<Integer,Integer> hash = ShardedTable.byHash(shards, ConcurrentBstTable.Mode.CAS);
+        StringBuilder line = new StringBuilder(Integer.toString(threads));
+        for(ShardedTable<Integer,Integer> table : java.util.Arrays.asList(single, range, hash)) {
+          Thread[] workers = new Thread[threads];
+          for(int t = 0; t < threads; t++) {
+            final int[] keys = new Random(t).ints(puts / threads, 0, Integer.MAX_VALUE).toArray();
+            workers[t] = new Thread(() -> { for(int k : keys) table.put(k, k); });
+          }
+          long start = System.nanoTime();
+          for(Thread worker : workers) worker.start();
+          for(Thread worker : workers) worker.join();
+          long elapsed = System.nanoTime() - start;
+          line.append("\t" + String.format("%.0f", puts / (elapsed / 1e9)) + "\t");
+          sink = table.size();
+        }
+        System.out.println(line);
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    System.out.println("");
+  }
+
+  /*
+   * Diffing two versions of an AVL tree which differ by 10 puts : BstDiff,
+   * which skips shared subtrees, against walking both trees in order. The
+   * first should stay roughly flat as the tree grows, the second linear.
+   */
+  private static void diff(int minExponent, int maxExponent) {
+    final int changes = 10;
+    System.out.println("-----BstDiff (" + changes + " changes)-----");
+    System.out.println("size\tBstDiff us\tin-order walk us");
+    for(int e = minExponent; e <= maxExponent; e++) {
+      int n = pow10(e);
+      Random random = new Random(e);
+      Bst<Integer,Integer> before = AvlEmpty.empty();
+      for(int i = 0; i < n; i++) before = before.put(random.nextInt(), i);
+      Bst<Integer,Integer> after = before;
+      for(int i = 0; i < changes; i++) after = after.put(random.nextInt(), -i);
+
+      int found = 0;
+      for(int round = 0; round < 3; round++) found += BstDiff.diff(before, after).size();
+      long start = System.nanoTime();
+      found += BstDiff.diff(before, after).size();
+      long diffTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      java.util.Iterator<Entry<Integer,Integer>> a = before.iterator();
+      java.util.Iterator<Entry<Integer,Integer>> b = after.iterator();
+      Entry<Integer,Integer> x = a.hasNext() ? a.next() : null;
+      Entry<Integer,Integer> y = b.hasNext() ? b.next() : null;
+      while(x != null || y != null) {
+        int comparison = (x == null) ? 1 : (y == null) ? -1 : x.getKey().compareTo(y.getKey());
+        if(comparison != 0 || !x.getValue().equals(y.getValue())) found++;
+        if(comparison <= 0) x = a.hasNext() ? a.next() : null;
+        if(comparison >= 0) y = b.hasNext() ? b.next() : null;
+      }
+      long walkTime = System.nanoTime() - start;
+
+      System.out.println(n + "\t" + String.format("%.1f", diffTime / 1e3) + "\t\t"
+                         + String.format("%.1f", walkTime / 1e3));
+      sink = found;
+    }
+    System.out.println("");
+  }
+
+  /*
+   * The time and the bytes allocated per call of each of the main operations,
+   * on Fork and on AvlFork, for every key distribution and key type :
+   *
+   *  - random : random int keys, and lookups spread evenly over them ;
+   *  - sorted : the keys 0 to n-1 put in increasing order, which makes Fork
+   *    a list, as deep as the tree is big (so it is only run up to
+   *    10^MAX_SORTED_FORK_EXPONENT, before put() overflows the stack) ;
+   *  - zipfian : random int keys, but lookups and deletes pick the key of
+   *    rank r with probability proportional to 1/(r+1), so a few keys are hot.
+   *
+   * String keys are the same ints, zero-padded so that sorted ints stay
+   * sorted as strings. put is the cost per entry of building the tree, and
+   * balanced, keys/values and saveInOrder are per entry of the whole tree;
+   * the others are per call, on the built tree.
+   */
+  private static final String[] OPERATIONS = {"put", "find", "containsKey", "delete", "deleteSmallest", "deleteLargest", "balanced", "keys/values", "saveInOrder"};
+  private static final int PROBES = 100000;
+  private static final int MAX_SORTED_FORK_EXPONENT = 3;
+
+  private static void operations(int minExponent, int maxExponent) {
+    for(String distribution : new String[] {"random", "sorted", "zipfian"}) {
+      for(String type : new String[] {"Integer", "String"}) {
+        System.out.println("-----Operations (" + type + " keys, " + distribution + ")-----");
+        System.out.println("size\toperation\tFork ns/op\tFork bytes/op\tAvlFork ns/op\tAvlFork bytes/op");
+        for(int e = minExponent; e <= maxExponent; e++) {
+          int n = pow10(e);
+          Random random = new Random(e);
+          int[] keys = distribution.equals("sorted") ? java.util.stream.IntStream.range(0, n).toArray() : random.ints(n).toArray();
+          double[] zipfian = distribution.equals("zipfian") ? zipfian(n) : null;
+          int[] probes = new int[PROBES];
+          for(int i = 0; i < PROBES; i++) probes[i] = keys[(zipfian == null) ? random.nextInt(n) : zipfianRank(zipfian, random)];
+          boolean fork = !distribution.equals("sorted") || e <= MAX_SORTED_FORK_EXPONENT;
+
+          double[][] forkResults = null;
+          double[][] avlResults;
+          if(type.equals("Integer")) {
+            Integer[] boxedKeys = box(keys);
+            Integer[] boxedProbes = box(probes);
+            if(fork) forkResults = operations(Empty.<Integer,Integer>empty(), boxedKeys, boxedProbes);
+            avlResults = operations(AvlEmpty.<Integer,Integer>empty(), boxedKeys, boxedProbes);
+          }
+          else {
+            String[] stringKeys = pad(keys);
+            String[] stringProbes = pad(probes);
+            if(fork) forkResults = operations(Empty.<String,Integer>empty(), stringKeys, stringProbes);
+            avlResults = operations(AvlEmpty.<String,Integer>empty(), stringKeys, stringProbes);
+          }
+
+          for(int op = 0; op < OPERATIONS.length; op++) {
+            String forkColumns = (forkResults == null) ? "-\t\t-" : String.format("%.1f\t\t%.1f", forkResults[op][0], forkResults[op][1]);
+            System.out.println(n + "\t" + OPERATIONS[op] + (OPERATIONS[op].length() < 8 ? "\t\t" : "\t") + forkColumns + "\t\t"
+                               + String.format("%.1f\t\t%.1f", avlResults[op][0], avlResults[op][1]));
+          }
+        }
+        System.out.println("");
+      }
+    }
+  }
+
+  /*
+   * Runs each of OPERATIONS on a tree built by putting keys in to empty, and
+   * returns {ns/op, bytes/op} for each.
+   */
+  private static <K extends Comparable<K>> double[][] operations(Bst<K,Integer> empty, K[] keys, K[] probes) {
+    double[][] results = new double[OPERATIONS.length][];
+    Integer value = 0;
+    @SuppressWarnings("unchecked")
+    Bst<K,Integer>[] built = (Bst<K,Integer>[]) new Bst<?,?>[1];
+    results[0] = measure(keys.length, 1, () -> {
+      Bst<K,Integer> tree = empty;
+      for(K k : keys) tree = tree.put(k, value);
+      built[0] = tree;
+    });
+    Bst<K,Integer> tree = built[0];
+    BstTable<K,Integer> table = new BstTable<K,Integer>(tree);
+    int size = tree.size();
+    int ends = Math.min(size / 2, probes.length);
+
+    results[1] = measure(probes.length, 2, () -> {
+      int found = 0;
+      for(K k : probes) if(table.get(k).isPresent()) found++;
+      sink = found;
+    });
+    results[2] = measure(probes.length, 2, () -> {
+      int found = 0;
+      for(K k : probes) if(table.containsKey(k)) found++;
+      sink = found;
+    });
+    results[3] = measure(probes.length, 2, () -> {
+      int found = 0;
+      for(K k : probes) if(tree.delete(k).isPresent()) found++;
+      sink = found;
+    });
+    results[4] = measure(ends, 2, () -> {
+      Bst<K,Integer> t = tree;
+      for(int i = 0; i < ends; i++) t = t.deleteSmallest().get();
+      sink = t.size();
+    });
+    results[5] = measure(ends, 2, () -> {
+      Bst<K,Integer> t = tree;
+      for(int i = 0; i < ends; i++) t = t.deleteLargest().get();
+      sink = t.size();
+    });
+    results[6] = measure(size, 2, () -> sink = tree.balanced().height());
+    results[7] = measure(2 * size, 2, () -> {
+      int found = 0;
+      for(K k : table.keys()) if(k != null) found++;
+      for(Integer v : table.values()) if(v != null) found++;
+      sink = found;
+    });
+    results[8] = measure(size, 2, () -> {
+      @SuppressWarnings("unchecked")
+      Entry<K,Integer>[] entries = (Entry<K,Integer>[]) new Entry<?,?>[size];
+      tree.saveInOrder(entries);
+      sink = entries.length;
+    });
+    return results;
+  }
+
+  /*
+   * Runs work rounds times, and returns the time and the bytes allocated by
+   * this thread per operation of the last round, when the earlier rounds have
+   * warmed up the JIT.
+   */
+  private static double[] measure(int operations, int rounds, Runnable work) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    for(int round = 1; round < rounds; round++) work.run();
+    long allocated = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    work.run();
+    long elapsed = System.nanoTime() - start;
+    allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+    return new double[] {elapsed / (double) Math.max(operations, 1), allocated / (double) Math.max(operations, 1)};
+  }
+
+  /*
+   * The cumulative probabilities of the ranks 0 to n-1 under a zipfian
+   * distribution with exponent 1.
+   */
+  private static double[] zipfian(int n) {
+    double[] cumulative = new double[n];
+    double total = 0;
+    for(int r = 0; r < n; r++) cumulative[r] = total += 1.0 / (r + 1);
+    for(int r = 0; r < n; r++) cumulative[r] /= total;
+    return cumulative;
+  }
+
+  private static int zipfianRank(double[] cumulative, Random random) {
+    int rank = java.util.Arrays.binarySearch(cumulative, random.nextDouble());
+    return Math.min((rank < 0) ? -rank - 1 : rank, cumulative.length - 1);
+  }
+
+  private static Integer[] box(int[] keys) {
+    Integer[] boxed = new Integer[keys.length];
+    for(int i = 0; i < keys.length; i++) boxed[i] = keys[i];
+    return boxed;
+  }
+
+  private static String[] pad(int[] keys) {
+    String[] padded = new String[keys.length];
+    for(int i = 0; i < keys.length; i++) {
+      String digits = Long.toString(keys[i] & 0xffffffffL);
+      padded[i] = "0000000000".substring(digits.length()) + digits;
+    }
+    return padded;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try(java.util.stream.Stream<Path> files = Files.list(directory)) {
+      for(Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+    }
+    Files.delete(directory);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 3; i++) System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static int pow10(int e) {
+    int n = 1;
+    for(int i = 0; i < e; i++) n = n * 10;
+    return n;
+  }
+
+  /*
+   * An int key which counts how many times compareTo is called on it.
+   */
+  private static final class CountingKey implements Comparable<CountingKey> {
+    static long comparisons = 0;
+    private final int key;
+
+    CountingKey(int key) {
+      this.key = key;
+    }
+
+    @Override
+    public int compareTo(CountingKey other) {
+      comparisons++;
+      return Integer.compare(this.key, other.key);
+    }
+
+    @Override
+    public String toString() {
+      return Integer.toString(this.key);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * The differences between two trees : which keys were added, removed, or
+ * given a new value, in key order.
+ *
+ * Two versions of a tree made from one another by put() and delete()
+ * share every subtree the updates didn't touch, by reference. The diff
+ * walks both trees together and skips any pair of subtrees which are the
+ * same object, so it only looks at the paths the updates copied : for a
+ * handful of changes between two big versions this is O(changes * height)
+ * rather than O(n). Where the two trees have different shapes, the second
+ * one is split around each key of the first (see BstSetOperations.split),
+ * which keeps the subtrees off the split path shared, so the walk can
+ * still skip them further down.
+ *
+ * Trees which share nothing still diff correctly, in O(n log n).
+ */
+public final class BstDiff {
+
+	private BstDiff() {}
+
+	/**
+	 * What happened to a key between the two trees.
+	 */
+	public enum Kind {
+		ADDED, REMOVED, CHANGED
+	}
+
+	/**
+	 * One difference between the two trees.
+	 */
+	public static final class Change<K extends Comparable<K>,V> {
+		private final Kind kind;
+		private final Entry<K,V> before;
+		private final Entry<K,V> after;
+
+		private Change(Kind kind, Entry<K,V> before, Entry<K,V> after) {
+			this.kind = kind;
+			this.before = before;
+			this.after = after;
+		}
+
+		/**
+		 * @return Whether the key was added, removed, or changed.
+		 */
+		public Kind getKind() {
+			return this.kind;
+		}
+
+		/**
+		 * @return The key which differs.
+		 */
+		public K getKey() {
+			return (this.after != null) ? this.after.getKey() : this.before.getKey();
+		}
+
+		/**
+		 * @return The entry in the first tree, or Optional.empty() if the key was added.
+		 */
+		public Optional<Entry<K,V>> getBefore() {
+			return Optional.ofNullable(this.before);
+		}
+
+		/**
+		 * @return The entry in the second tree, or Optional.empty() if the key was removed.
+		 */
+		public Optional<Entry<K,V>> getAfter() {
+			return Optional.ofNullable(this.after);
+		}
+
+		@Override
+		public String toString() {
+			return this.kind + " " + getKey();
+		}
+	}
+
+	/**
+	 * Passes every difference between before and after to changes, in key
+	 * order. A key whose value is equal (by equals()) in both trees isn't a
+	 * difference.
+	 *
+	 * @param before The first tree.
+	 * @param after The second tree.
+	 * @param changes Receives each difference.
+	 */
+	public static <K extends Comparable<K>,V> void diff(Bst<K,V> before, Bst<K,V> after, Consumer<Change<K,V>> changes) {
+		if(before == after) return;
+		if(before.isEmpty()) {
+			for(Entry<K,V> e : after) changes.accept(new Change<K,V>(Kind.ADDED, null, e));
+			return;
+		}
+		if(after.isEmpty()) {
+			for(Entry<K,V> e : before) changes.accept(new Change<K,V>(Kind.REMOVED, e, null));
+			return;
+		}
+
+		/*
+		 * If the roots have the same key (always the case for subtrees in the
+		 * same place, when the shape hasn't changed) split() just takes after
+		 * apart, without making any new nodes.
+		 */
+		Fork<K,V> f = (Fork<K,V>) before;
+		BstSetOperations.Split<K,V> s = BstSetOperations.split(after, f.getRootKey());
+		diff(f.left, s.less, changes);
+		if(s.found == null) {
+			changes.accept(new Change<K,V>(Kind.REMOVED, f.root, null));
+		}
+		else if(s.found != f.root && !Objects.equals(s.found.getValue(), f.root.getValue())) {
+			changes.accept(new Change<K,V>(Kind.CHANGED, f.root, s.found));
+		}
+		diff(f.right, s.greater, changes);
+	}
+
+	/**
+	 * Returns every difference between before and after, in key order.
+	 *
+	 * @param before The first tree.
+	 * @param after The second tree.
+	 * @return The differences.
+	 */
+	public static <K extends Comparable<K>,V> List<Change<K,V>> diff(Bst<K,V> before, Bst<K,V> after) {
+		List<Change<K,V>> changes = new ArrayList<Change<K,V>>();
+		diff(before, after, changes::add);
+		return changes;
+	}
+}
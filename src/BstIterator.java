@@ -0,0 +1,100 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy in-order (left, then root, then right) iterator over a Bst.
+ *
+ * Instead of saving the whole tree in to an array first, this keeps an
+ * explicit stack of the Forks whose root hasn't been returned yet, which
+ * is at most height() + 1 deep. Each call to next() takes amortised O(1),
+ * so a caller that stops early only pays for the entries it has read.
+ */
+public class BstIterator<K extends Comparable<K>,V> implements Iterator<Entry<K,V>> {
+
+	private final ArrayDeque<Fork<K,V>> stack = new ArrayDeque<Fork<K,V>>();
+	private final K from, to;
+	private final boolean fromInclusive, toInclusive;
+
+	/**
+	 * Creates an iterator which starts at the smallest key of tree.
+	 *
+	 * @param tree The tree to iterate over.
+	 */
+	public BstIterator(Bst<K,V> tree) {
+		this(tree, null, false, null, false);
+	}
+
+	/**
+	 * Creates an iterator over just the entries of tree whose keys are
+	 * between from and to. Subtrees which are entirely outside of the range
+	 * are never visited, so iterating over k entries visits O(height + k)
+	 * nodes.
+	 *
+	 * @param tree The tree to iterate over.
+	 * @param from The lower bound, or null for no lower bound.
+	 * @param fromInclusive Whether or not a key equal to from is included.
+	 * @param to The upper bound, or null for no upper bound.
+	 * @param toInclusive Whether or not a key equal to to is included.
+	 */
+	public BstIterator(Bst<K,V> tree, K from, boolean fromInclusive, K to, boolean toInclusive) {
+		this.from = from;
+		this.fromInclusive = fromInclusive;
+		this.to = to;
+		this.toInclusive = toInclusive;
+		pushLeft(tree);
+	}
+
+	/**
+	 * Are there any entries left? The top of the stack is the next entry,
+	 * so we're finished once it is past the upper bound.
+	 */
+	@Override
+	public boolean hasNext() {
+		if(this.stack.isEmpty()) {
+			return false;
+		}
+		if(this.to == null) {
+			return true;
+		}
+		int comparison = this.stack.peek().getRootKey().compareTo(this.to);
+		return comparison < 0 || (comparison == 0 && this.toInclusive);
+	}
+
+	/**
+	 * Returns the entry with the next largest key.
+	 */
+	@Override
+	public Entry<K,V> next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		/*
+		 * The top of the stack is the next node in key order. Everything in
+		 * its left branch has already been returned, so the next thing after it
+		 * is the left-most node of its right branch.
+		 */
+		Fork<K,V> next = this.stack.pop();
+		pushLeft(next.right);
+		return next.root;
+	}
+
+	/**
+	 * Pushes t and then its left-most path on to the stack, skipping over
+	 * any node whose key is below the lower bound (and so its left branch).
+	 */
+	private void pushLeft(Bst<K,V> t) {
+		while(t instanceof Fork) {
+			Fork<K,V> f = (Fork<K,V>) t;
+			if(this.from != null) {
+				int comparison = f.getRootKey().compareTo(this.from);
+				if(comparison < 0 || (comparison == 0 && !this.fromInclusive)) {
+					t = f.right;
+					continue;
+				}
+			}
+			this.stack.push(f);
+			t = f.left;
+		}
+	}
+}
@@ -0,0 +1,431 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters for the hot paths of Fork and BstTable, to show why lookups
+ * or updates are slow : a degenerate tree visits too many nodes,
+ * expensive keys show up as time per comparison, and heavy updates
+ * build too many nodes.
+ *
+ * The metrics are off unless the JVM is started with
+ * -Dbst.metrics=true. ENABLED is a static final, so when it is false the
+ * JIT removes every "if(BstMetrics.ENABLED)" hook outright, and the
+ * trees run exactly as they would without them.
+ *
+ * When they are on, Fork counts the key comparisons made and the nodes
+ * visited by has(), find(), put() and delete(), and each node it builds,
+ * and BstTable times each get(), containsKey(), put() and remove(). The
+ * counts made during one of those calls are kept per thread until it
+ * returns, and then added to that operation's totals, along with its
+ * latency, in a histogram with power of 2 buckets. Everything is held in
+ * LongAdders, so threads don't contend on the counters.
+ *
+ * The figures can be read with snapshot(), over JMX once registerMBean()
+ * has been called, or pushed to any number of Sinks with publish().
+ */
+public final class BstMetrics {
+
+	/**
+	 * Whether the metrics were turned on with -Dbst.metrics=true.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("bst.metrics");
+
+	/**
+	 * The table operations which are timed.
+	 */
+	public enum Operation {
+		GET, CONTAINS, PUT, REMOVE
+	}
+
+	/**
+	 * Receives snapshots from publish(), e.g. to forward them to a
+	 * monitoring system.
+	 */
+	@FunctionalInterface
+	public interface Sink {
+		/**
+		 * @param snapshot The metrics at the time of publish().
+		 */
+		void publish(Snapshot snapshot);
+	}
+
+	/*
+	 * Bucket b of a histogram counts latencies in [2^(b-1), 2^b) ns, and
+	 * bucket 0 counts latencies of 0.
+	 */
+	private static final int BUCKETS = 64;
+
+	private static final LongAdder COMPARISONS = new LongAdder();
+	private static final LongAdder NODES_VISITED = new LongAdder();
+	private static final LongAdder NODES_ALLOCATED = new LongAdder();
+	private static final Counters[] OPERATIONS = new Counters[Operation.values().length];
+	static {
+		for(int i = 0; i < OPERATIONS.length; i++) OPERATIONS[i] = new Counters();
+	}
+
+	private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+	private static final List<Sink> SINKS = new CopyOnWriteArrayList<Sink>();
+	private static final String MBEAN_NAME = "bst:type=Metrics";
+
+	private BstMetrics() {}
+
+	/*
+	 * The hooks. Each call site checks ENABLED first, so these are never
+	 * called when the metrics are off.
+	 */
+
+	static void compared() {
+		Probe probe = PROBE.get();
+		if(probe.operation != null) probe.comparisons++;
+		else COMPARISONS.increment();
+	}
+
+	static void visited() {
+		Probe probe = PROBE.get();
+		if(probe.operation != null) probe.visits++;
+		else NODES_VISITED.increment();
+	}
+
+	static void allocated() {
+		Probe probe = PROBE.get();
+		if(probe.operation != null) probe.allocations++;
+		else NODES_ALLOCATED.increment();
+	}
+
+	/**
+	 * Runs work as one call of operation, timing it and counting the
+	 * comparisons, visits and nodes built while it runs. A call made
+	 * inside another one (remove() calls has(), for instance) is counted
+	 * as part of the outer one.
+	 */
+	static <T> T record(Operation operation, Supplier<T> work) {
+		Probe probe = PROBE.get();
+		if(probe.operation != null) {
+			return work.get();
+		}
+		probe.operation = operation;
+		long start = System.nanoTime();
+		try {
+			return work.get();
+		}
+		finally {
+			long elapsed = System.nanoTime() - start;
+			Counters counters = OPERATIONS[operation.ordinal()];
+			counters.count.increment();
+			counters.comparisons.add(probe.comparisons);
+			counters.visits.add(probe.visits);
+			counters.allocations.add(probe.allocations);
+			counters.latency[BUCKETS - Long.numberOfLeadingZeros(Math.max(elapsed, 0))].increment();
+			COMPARISONS.add(probe.comparisons);
+			NODES_VISITED.add(probe.visits);
+			NODES_ALLOCATED.add(probe.allocations);
+			probe.operation = null;
+			probe.comparisons = probe.visits = probe.allocations = 0;
+		}
+	}
+
+	/**
+	 * Returns the metrics as they are now.
+	 *
+	 * @return A snapshot of every counter.
+	 */
+	public static Snapshot snapshot() {
+		return new Snapshot();
+	}
+
+	/**
+	 * Sets every counter back to zero. Calls running at the time may be
+	 * counted either side of the reset.
+	 */
+	public static void reset() {
+		COMPARISONS.reset();
+		NODES_VISITED.reset();
+		NODES_ALLOCATED.reset();
+		for(Counters counters : OPERATIONS) counters.reset();
+	}
+
+	/**
+	 * Adds a sink, which publish() will pass snapshots to.
+	 *
+	 * @param sink The sink to add.
+	 */
+	public static void addSink(Sink sink) {
+		SINKS.add(sink);
+	}
+
+	/**
+	 * Removes a sink added with addSink().
+	 *
+	 * @param sink The sink to remove.
+	 */
+	public static void removeSink(Sink sink) {
+		SINKS.remove(sink);
+	}
+
+	/**
+	 * Takes a snapshot and passes it to every sink. Call this as often as
+	 * the sinks want figures, e.g. from a ScheduledExecutorService.
+	 *
+	 * @return The snapshot that was published.
+	 */
+	public static Snapshot publish() {
+		Snapshot snapshot = snapshot();
+		for(Sink sink : SINKS) sink.publish(snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, as
+	 * "bst:type=Metrics", unless they are registered already.
+	 *
+	 * @return The name the metrics are registered under.
+	 * @throws JMException If the MBean server refuses the bean.
+	 */
+	public static synchronized ObjectName registerMBean() throws JMException {
+		ObjectName name = new ObjectName(MBEAN_NAME);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(!server.isRegistered(name)) {
+			server.registerMBean(new Bean(), name);
+		}
+		return name;
+	}
+
+	/**
+	 * The counters of one operation.
+	 */
+	private static final class Counters {
+		final LongAdder count = new LongAdder();
+		final LongAdder comparisons = new LongAdder();
+		final LongAdder visits = new LongAdder();
+		final LongAdder allocations = new LongAdder();
+		final LongAdder[] latency = new LongAdder[BUCKETS + 1];
+
+		Counters() {
+			for(int i = 0; i < this.latency.length; i++) this.latency[i] = new LongAdder();
+		}
+
+		void reset() {
+			this.count.reset();
+			this.comparisons.reset();
+			this.visits.reset();
+			this.allocations.reset();
+			for(LongAdder bucket : this.latency) bucket.reset();
+		}
+	}
+
+	/**
+	 * What one thread has counted during the operation it is running.
+	 */
+	private static final class Probe {
+		Operation operation;
+		long comparisons;
+		long visits;
+		long allocations;
+	}
+
+	/**
+	 * The metrics at one moment. Each counter is read separately, so a
+	 * snapshot taken while other threads are running isn't exactly
+	 * consistent between counters.
+	 */
+	public static final class Snapshot {
+		private final long comparisons;
+		private final long nodesVisited;
+		private final long nodesAllocated;
+		private final long[] counts = new long[OPERATIONS.length];
+		private final long[] operationComparisons = new long[OPERATIONS.length];
+		private final long[] operationVisits = new long[OPERATIONS.length];
+		private final long[] operationAllocations = new long[OPERATIONS.length];
+		private final long[][] latency = new long[OPERATIONS.length][BUCKETS + 1];
+
+		private Snapshot() {
+			this.comparisons = COMPARISONS.sum();
+			this.nodesVisited = NODES_VISITED.sum();
+			this.nodesAllocated = NODES_ALLOCATED.sum();
+			for(int i = 0; i < OPERATIONS.length; i++) {
+				this.counts[i] = OPERATIONS[i].count.sum();
+				this.operationComparisons[i] = OPERATIONS[i].comparisons.sum();
+				this.operationVisits[i] = OPERATIONS[i].visits.sum();
+				this.operationAllocations[i] = OPERATIONS[i].allocations.sum();
+				for(int b = 0; b <= BUCKETS; b++) this.latency[i][b] = OPERATIONS[i].latency[b].sum();
+			}
+		}
+
+		/**
+		 * @return The total number of key comparisons.
+		 */
+		public long getComparisons() {
+			return this.comparisons;
+		}
+
+		/**
+		 * @return The total number of nodes visited by has(), find(), put() and delete().
+		 */
+		public long getNodesVisited() {
+			return this.nodesVisited;
+		}
+
+		/**
+		 * @return The total number of nodes built.
+		 */
+		public long getNodesAllocated() {
+			return this.nodesAllocated;
+		}
+
+		/**
+		 * @param operation The operation.
+		 * @return The number of calls of operation.
+		 */
+		public long getCount(Operation operation) {
+			return this.counts[operation.ordinal()];
+		}
+
+		/**
+		 * @param operation The operation.
+		 * @return The mean number of key comparisons per call of operation, or 0 if there were none.
+		 */
+		public double getMeanComparisons(Operation operation) {
+			return mean(this.operationComparisons, operation);
+		}
+
+		/**
+		 * @param operation The operation.
+		 * @return The mean number of nodes visited per call of operation, or 0 if there were none.
+		 */
+		public double getMeanNodesVisited(Operation operation) {
+			return mean(this.operationVisits, operation);
+		}
+
+		/**
+		 * @param operation The operation.
+		 * @return The mean number of nodes built per call of operation, or 0 if there were none.
+		 */
+		public double getMeanNodesAllocated(Operation operation) {
+			return mean(this.operationAllocations, operation);
+		}
+
+		private double mean(long[] totals, Operation operation) {
+			long count = this.counts[operation.ordinal()];
+			return (count == 0) ? 0 : totals[operation.ordinal()] / (double) count;
+		}
+
+		/**
+		 * Returns a latency which at least the given fraction of the calls of
+		 * operation took no longer than. This is the top of a histogram
+		 * bucket, so it is within a factor of 2 of the exact figure.
+		 *
+		 * @param operation The operation.
+		 * @param quantile The fraction of calls, between 0 and 1 (0.5 for the median).
+		 * @return The latency in nanoseconds, or 0 if there were no calls.
+		 */
+		public long getLatencyNanos(Operation operation, double quantile) {
+			long[] buckets = this.latency[operation.ordinal()];
+			long count = 0;
+			for(long bucket : buckets) count += bucket;
+			if(count == 0) {
+				return 0;
+			}
+			long target = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for(int b = 0; b < buckets.length; b++) {
+				seen += buckets[b];
+				if(seen >= Math.max(target, 1)) {
+					return (b == 0) ? 0 : (b >= 63) ? Long.MAX_VALUE : (1L << b) - 1;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append("comparisons=").append(this.comparisons)
+			 .append(" nodesVisited=").append(this.nodesVisited)
+			 .append(" nodesAllocated=").append(this.nodesAllocated);
+			for(Operation operation : Operation.values()) {
+				s.append(String.format(" %s{count=%d visits/op=%.1f allocations/op=%.1f p50=%dns p99=%dns}",
+				                       operation, getCount(operation), getMeanNodesVisited(operation), getMeanNodesAllocated(operation),
+				                       getLatencyNanos(operation, 0.5), getLatencyNanos(operation, 0.99)));
+			}
+			return s.toString();
+		}
+	}
+
+	/**
+	 * The MXBean registered by registerMBean(), which reads a new snapshot
+	 * for each attribute.
+	 */
+	private static final class Bean implements BstMetricsMXBean {
+		@Override
+		public boolean isEnabled() {
+			return ENABLED;
+		}
+
+		@Override
+		public long getComparisons() {
+			return snapshot().getComparisons();
+		}
+
+		@Override
+		public long getNodesVisited() {
+			return snapshot().getNodesVisited();
+		}
+
+		@Override
+		public long getNodesAllocated() {
+			return snapshot().getNodesAllocated();
+		}
+
+		@Override
+		public Map<String,Long> getOperationCounts() {
+			return byOperation(snapshot()::getCount);
+		}
+
+		@Override
+		public Map<String,Double> getMeanComparisons() {
+			return byOperation(snapshot()::getMeanComparisons);
+		}
+
+		@Override
+		public Map<String,Double> getMeanNodesVisited() {
+			return byOperation(snapshot()::getMeanNodesVisited);
+		}
+
+		@Override
+		public Map<String,Double> getMeanNodesAllocated() {
+			return byOperation(snapshot()::getMeanNodesAllocated);
+		}
+
+		@Override
+		public Map<String,Long> getLatencyMedianNanos() {
+			Snapshot snapshot = snapshot();
+			return byOperation(operation -> snapshot.getLatencyNanos(operation, 0.5));
+		}
+
+		@Override
+		public Map<String,Long> getLatency99thPercentileNanos() {
+			Snapshot snapshot = snapshot();
+			return byOperation(operation -> snapshot.getLatencyNanos(operation, 0.99));
+		}
+
+		@Override
+		public void reset() {
+			BstMetrics.reset();
+		}
+
+		private static <T> Map<String,T> byOperation(Function<Operation,T> figure) {
+			Map<String,T> figures = new LinkedHashMap<String,T>();
+			for(Operation operation : Operation.values()) figures.put(operation.name(), figure.apply(operation));
+			return figures;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+import java.util.Map;
+
+/**
+ * The JMX view of BstMetrics, registered by BstMetrics.registerMBean()
+ * as "bst:type=Metrics". Per-operation figures are maps from the
+ * operation's name (GET, CONTAINS, PUT, REMOVE) to its value.
+ */
+public interface BstMetricsMXBean {
+
+	/**
+	 * @return Whether the metrics were turned on with -Dbst.metrics=true.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * @return The number of key comparisons made since the last reset.
+	 */
+	long getComparisons();
+
+	/**
+	 * @return The number of nodes visited by lookups and updates since the last reset.
+	 */
+	long getNodesVisited();
+
+	/**
+	 * @return The number of nodes built since the last reset.
+	 */
+	long getNodesAllocated();
+
+	/**
+	 * @return The number of calls of each operation.
+	 */
+	Map<String,Long> getOperationCounts();
+
+	/**
+	 * @return The mean number of key comparisons per call of each operation.
+	 */
+	Map<String,Double> getMeanComparisons();
+
+	/**
+	 * @return The mean number of nodes visited per call of each operation.
+	 */
+	Map<String,Double> getMeanNodesVisited();
+
+	/**
+	 * @return The mean number of nodes built per call of each operation.
+	 */
+	Map<String,Double> getMeanNodesAllocated();
+
+	/**
+	 * @return The median latency of each operation, in nanoseconds (to within a factor of 2).
+	 */
+	Map<String,Long> getLatencyMedianNanos();
+
+	/**
+	 * @return The 99th percentile latency of each operation, in nanoseconds (to within a factor of 2).
+	 */
+	Map<String,Long> getLatency99thPercentileNanos();
+
+	/**
+	 * Sets every counter back to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,220 @@
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Union, intersection and difference of two trees, built on split() and
+ * join() rather than on repeated put() and delete().
+ *
+ * Each operation takes the root of the first tree, splits the second
+ * tree around its key, works out the left and right halves recursively
+ * and joins the results back together with the root. A subtree that
+ * ends up unchanged (for example, because the other tree has nothing in
+ * its range) is returned as it is, so the result shares every untouched
+ * subtree with its inputs by reference. When both inputs are large the
+ * two halves are worked out in parallel on the common ForkJoinPool.
+ *
+ * If both trees are AVL trees (AvlFork/AvlEmpty) the results are joined
+ * with AvlFork.join(), so they are balanced too. Otherwise the results
+ * are made of plain Forks, which, like Fork.put(), don't rebalance.
+ */
+public final class BstSetOperations {
+
+	/*
+	 * Below this many entries in total, recursing in parallel costs more
+	 * than it saves.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	private BstSetOperations() {}
+
+	/**
+	 * Returns a tree with the entries of both a and b. When a key is in
+	 * both, the value is resolve(value in a, value in b).
+	 *
+	 * @param a The first tree.
+	 * @param b The second tree.
+	 * @param resolve Picks the value for keys that are in both trees.
+	 * @return The union of a and b.
+	 */
+	public static <K extends Comparable<K>,V> Bst<K,V> union(Bst<K,V> a, Bst<K,V> b, BinaryOperator<V> resolve) {
+		if(b.isEmpty()) return a;
+		if(a.isEmpty()) return b;
+
+		Fork<K,V> f = (Fork<K,V>) a;
+		Split<K,V> s = split(b, f.getRootKey());
+		Bst<K,V>[] halves = both(f.left.size() + s.less.size() + f.right.size() + s.greater.size(),
+		                         () -> union(f.left, s.less, resolve),
+		                         () -> union(f.right, s.greater, resolve));
+		Entry<K,V> root = (s.found == null) ? f.root : resolved(f.root, s.found, resolve);
+
+		if(halves[0] == f.left && halves[1] == f.right && root == f.root) return a;
+		return join(halves[0], root, halves[1]);
+	}
+
+	/**
+	 * Returns a tree with the entries of a whose keys are also in b. The
+	 * value is resolve(value in a, value in b).
+	 *
+	 * @param a The first tree.
+	 * @param b The second tree.
+	 * @param resolve Picks the value for each key.
+	 * @return The intersection of a and b.
+	 */
+	public static <K extends Comparable<K>,V> Bst<K,V> intersection(Bst<K,V> a, Bst<K,V> b, BinaryOperator<V> resolve) {
+		if(a.isEmpty()) return a;
+		if(b.isEmpty()) return b;
+
+		Fork<K,V> f = (Fork<K,V>) a;
+		Split<K,V> s = split(b, f.getRootKey());
+		Bst<K,V>[] halves = both(f.left.size() + s.less.size() + f.right.size() + s.greater.size(),
+		                         () -> intersection(f.left, s.less, resolve),
+		                         () -> intersection(f.right, s.greater, resolve));
+
+		if(s.found == null) return join(halves[0], halves[1]);
+		Entry<K,V> root = resolved(f.root, s.found, resolve);
+		if(halves[0] == f.left && halves[1] == f.right && root == f.root) return a;
+		return join(halves[0], root, halves[1]);
+	}
+
+	/**
+	 * Returns a tree with the entries of a whose keys are not in b.
+	 *
+	 * @param a The first tree.
+	 * @param b The second tree.
+	 * @return The difference of a and b.
+	 */
+	public static <K extends Comparable<K>,V> Bst<K,V> difference(Bst<K,V> a, Bst<K,V> b) {
+		if(a.isEmpty() || b.isEmpty()) return a;
+
+		Fork<K,V> f = (Fork<K,V>) a;
+		if(a == b) return emptyLike(f.left);
+		Split<K,V> s = split(b, f.getRootKey());
+		Bst<K,V>[] halves = both(f.left.size() + s.less.size() + f.right.size() + s.greater.size(),
+		                         () -> difference(f.left, s.less),
+		                         () -> difference(f.right, s.greater));
+
+		if(s.found != null) return join(halves[0], halves[1]);
+		if(halves[0] == f.left && halves[1] == f.right) return a;
+		return join(halves[0], f.root, halves[1]);
+	}
+
+	/**
+	 * The result of split() : the entries of a tree with keys smaller than
+	 * k, the entry with key k (or null), and the entries with bigger keys.
+	 */
+	static final class Split<K extends Comparable<K>,V> {
+		final Bst<K,V> less;
+		final Entry<K,V> found;
+		final Bst<K,V> greater;
+
+		Split(Bst<K,V> less, Entry<K,V> found, Bst<K,V> greater) {
+			this.less = less;
+			this.found = found;
+			this.greater = greater;
+		}
+	}
+
+	/**
+	 * Splits t around the key k. This follows the path from the root
+	 * towards k, so it joins together O(height) subtrees, and everything off
+	 * that path is shared with t.
+	 *
+	 * @param t The tree to split.
+	 * @param k The key to split around.
+	 * @return The entries of t below k, the entry of k, and the entries above k.
+	 */
+	static <K extends Comparable<K>,V> Split<K,V> split(Bst<K,V> t, K k) {
+		if(t.isEmpty()) {
+			return new Split<K,V>(t, null, t);
+		}
+		Fork<K,V> f = (Fork<K,V>) t;
+		int comparison = k.compareTo(f.getRootKey());
+		if(comparison < 0) {
+			Split<K,V> s = split(f.left, k);
+			return new Split<K,V>(s.less, s.found, join(s.greater, f.root, f.right));
+		}
+		else if(comparison > 0) {
+			Split<K,V> s = split(f.right, k);
+			return new Split<K,V>(join(f.left, f.root, s.less), s.found, s.greater);
+		}
+		return new Split<K,V>(f.left, f.root, f.right);
+	}
+
+	/**
+	 * Joins two trees with a root entry in between. Every key of left must be
+	 * smaller than the root's, and every key of right bigger.
+	 */
+	static <K extends Comparable<K>,V> Bst<K,V> join(Bst<K,V> left, Entry<K,V> root, Bst<K,V> right) {
+		if(isAvl(left) && isAvl(right)) {
+			return AvlFork.join(left, root, right);
+		}
+		return new Fork<K,V>(root, left, right);
+	}
+
+	/**
+	 * Joins two trees, where every key of left is smaller than every key of
+	 * right, by taking the largest entry of left as the new root.
+	 */
+	static <K extends Comparable<K>,V> Bst<K,V> join(Bst<K,V> left, Bst<K,V> right) {
+		if(left.isEmpty()) return right;
+		if(right.isEmpty()) return left;
+		return join(left.deleteLargest().get(), left.largest().get(), right);
+	}
+
+	private static boolean isAvl(Bst<?,?> t) {
+		return t instanceof AvlFork || t instanceof AvlEmpty;
+	}
+
+	/**
+	 * The empty tree of the same kind as t.
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V> emptyLike(Bst<K,V> t) {
+		return isAvl(t) ? AvlEmpty.<K,V>empty() : Empty.<K,V>empty();
+	}
+
+	/**
+	 * The entry for a key found in both trees, reusing the first entry when
+	 * the resolved value is the same.
+	 */
+	private static <K extends Comparable<K>,V> Entry<K,V> resolved(Entry<K,V> a, Entry<K,V> b, BinaryOperator<V> resolve) {
+		V value = resolve.apply(a.getValue(), b.getValue());
+		return (value == a.getValue()) ? a : new Entry<K,V>(a.getKey(), value);
+	}
+
+	/**
+	 * Works out left and right, in parallel if there are enough entries.
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V>[] both(int size, Supplier<Bst<K,V>> left, Supplier<Bst<K,V>> right) {
+		@SuppressWarnings("unchecked")
+		Bst<K,V>[] halves = (Bst<K,V>[]) new Bst<?,?>[2];
+		if(size < PARALLEL_THRESHOLD) {
+			halves[0] = left.get();
+			halves[1] = right.get();
+		}
+		else {
+			Task<K,V> task = new Task<K,V>(left);
+			task.fork();
+			halves[1] = right.get();
+			halves[0] = task.join();
+		}
+		return halves;
+	}
+
+	/**
+	 * Works out one half of an operation on a ForkJoinPool.
+	 */
+	private static final class Task<K extends Comparable<K>,V> extends RecursiveTask<Bst<K,V>> {
+		private static final long serialVersionUID = 1L;
+		private final transient Supplier<Bst<K,V>> work;
+
+		Task(Supplier<Bst<K,V>> work) {
+			this.work = work;
+		}
+
+		@Override
+		protected Bst<K,V> compute() {
+			return this.work.get();
+		}
+	}
+}
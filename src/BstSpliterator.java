@@ -0,0 +1,109 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over the entries of a Bst, in key order, which splits
+ * along the structure of the tree.
+ *
+ * What's left to traverse is always one entry (head, which may be
+ * missing) followed by every entry of one subtree (tree). Splitting a
+ * Spliterator whose tree is a Fork hands its head and the Fork's left
+ * branch to the new prefix Spliterator, and keeps the Fork's root and
+ * right branch. No entries are copied, and since Fork stores the size of
+ * every subtree both halves know their exact size, so this is SIZED and
+ * SUBSIZED. On a balanced tree the halves are close to equal.
+ */
+public class BstSpliterator<K extends Comparable<K>,V> implements Spliterator<Entry<K,V>> {
+
+	private Entry<K,V> head;
+	private Bst<K,V> tree;
+	private Iterator<Entry<K,V>> iterator;
+	private long remaining;
+
+	/**
+	 * Creates a Spliterator over all of the entries of tree.
+	 *
+	 * @param tree The tree to traverse.
+	 */
+	public BstSpliterator(Bst<K,V> tree) {
+		this(null, tree);
+	}
+
+	private BstSpliterator(Entry<K,V> head, Bst<K,V> tree) {
+		this.head = head;
+		this.tree = tree;
+		this.iterator = null;
+		this.remaining = ((head == null) ? 0 : 1) + tree.size();
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Entry<K,V>> action) {
+		if(this.head != null) {
+			Entry<K,V> e = this.head;
+			this.head = null;
+			this.remaining--;
+			action.accept(e);
+			return true;
+		}
+		/*
+		 * Once we've started on the tree, we can't split any more.
+		 */
+		if(this.iterator == null) {
+			this.iterator = this.tree.iterator();
+		}
+		if(!this.iterator.hasNext()) {
+			return false;
+		}
+		this.remaining--;
+		action.accept(this.iterator.next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Entry<K,V>> action) {
+		while(tryAdvance(action));
+	}
+
+	@Override
+	public Spliterator<Entry<K,V>> trySplit() {
+		if(this.iterator != null || !(this.tree instanceof Fork)) {
+			return null;
+		}
+		Fork<K,V> f = (Fork<K,V>) this.tree;
+		BstSpliterator<K,V> prefix;
+		if(this.head == null && f.left.isEmpty()) {
+			/*
+			 * The prefix would be empty, so split off just the root instead.
+			 */
+			prefix = new BstSpliterator<K,V>(f.root, Empty.<K,V>empty());
+			this.tree = f.right;
+		}
+		else {
+			prefix = new BstSpliterator<K,V>(this.head, f.left);
+			this.head = f.root;
+			this.tree = f.right;
+		}
+		this.remaining = this.remaining - prefix.remaining;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.remaining;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+
+	/**
+	 * The entries are sorted by their keys.
+	 */
+	@Override
+	public Comparator<? super Entry<K,V>> getComparator() {
+		return Comparator.comparing(Entry<K,V>::getKey);
+	}
+}
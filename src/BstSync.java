@@ -0,0 +1,269 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Anti-entropy sync between two copies of a tree over a socket : a
+ * replica pulls just the parts of the tree in which it differs from the
+ * primary, rather than a whole snapshot.
+ *
+ * Every tree stores the contentHash() and size of each subtree, and
+ * prefixHash() and rank() use them to give the hash and size of any
+ * range of keys in O(height). The hash of a range doesn't depend on the
+ * shape of the tree, so the two copies can be compared range by range
+ * even if they were built in different orders. The replica starts with
+ * the whole key range, and for each range it sends its hash and size to
+ * the primary, which answers with one of :
+ *
+ *  - MATCH : the range is the same on both sides, so nothing more is sent;
+ *  - ENTRIES : the primary's entries in the range, when there are only a
+ *    few (or the replica has none), which replace the replica's;
+ *  - SPLIT : a key in the middle of the primary's range, around which the
+ *    replica splits the range in two and asks about each half.
+ *
+ * The walk goes top-down, from big ranges to small ones, and stops as
+ * soon as a range matches, so the entries sent are the ones near the
+ * differences, plus O(log n) round trips for each of them.
+ *
+ * Both sides must use the same Codecs, and keys and values whose
+ * hashCode() is the same in every JVM (as it is for String, Integer,
+ * Long...).
+ */
+public final class BstSync {
+
+	private static final byte DONE = 0;
+	private static final byte RANGE = 1;
+	private static final byte MATCH = 0;
+	private static final byte ENTRIES = 1;
+	private static final byte SPLIT = 2;
+
+	/*
+	 * A mismatched range with at most this many entries on the primary is
+	 * sent whole, rather than split further.
+	 */
+	private static final int LEAF_SIZE = 16;
+
+	private BstSync() {}
+
+	/**
+	 * What a call to pull() did.
+	 */
+	public static final class Result<K extends Comparable<K>,V> {
+		private final Bst<K,V> tree;
+		private final int entriesReceived;
+		private final int roundTrips;
+
+		private Result(Bst<K,V> tree, int entriesReceived, int roundTrips) {
+			this.tree = tree;
+			this.entriesReceived = entriesReceived;
+			this.roundTrips = roundTrips;
+		}
+
+		/**
+		 * @return The replica's tree, now with the same entries as the primary's.
+		 */
+		public Bst<K,V> getTree() {
+			return this.tree;
+		}
+
+		/**
+		 * @return The number of entries the primary sent.
+		 */
+		public int getEntriesReceived() {
+			return this.entriesReceived;
+		}
+
+		/**
+		 * @return The number of ranges the replica asked about.
+		 */
+		public int getRoundTrips() {
+			return this.roundTrips;
+		}
+	}
+
+	/**
+	 * Answers a replica's pull() over socket, from tree, until the replica
+	 * is done. This doesn't close the socket.
+	 *
+	 * @param socket A socket connected to the replica.
+	 * @param tree The primary's tree.
+	 * @param keyCodec How to encode the keys.
+	 * @param valueCodec How to encode the values.
+	 * @throws IOException If the socket fails.
+	 */
+	public static <K extends Comparable<K>,V> void serve(Socket socket, Bst<K,V> tree, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		while(true) {
+			ByteBuffer request = readFrame(in);
+			if(request.get() == DONE) {
+				return;
+			}
+			K from = (request.get() != 0) ? keyCodec.read(request) : null;
+			K to = (request.get() != 0) ? keyCodec.read(request) : null;
+			int count = request.getInt();
+			long hash = request.getLong();
+
+			int size = count(tree, from, to);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream reply = new DataOutputStream(bytes);
+			if(size == count && hash(tree, from, to) == hash) {
+				reply.writeByte(MATCH);
+			}
+			else if(size <= LEAF_SIZE || count == 0) {
+				reply.writeByte(ENTRIES);
+				reply.writeInt(size);
+				for(Iterator<Entry<K,V>> i = new BstIterator<K,V>(tree, from, true, to, false); i.hasNext(); ) {
+					Entry<K,V> e = i.next();
+					keyCodec.write(e.getKey(), reply);
+					valueCodec.write(e.getValue(), reply);
+				}
+			}
+			else {
+				/*
+				 * The middle key of the range, which is bigger than from, so both
+				 * halves are smaller than the range.
+				 */
+				int first = (from == null) ? 0 : tree.rank(from);
+				reply.writeByte(SPLIT);
+				keyCodec.write(tree.select(first + size / 2).get().getKey(), reply);
+			}
+			writeFrame(out, bytes);
+		}
+	}
+
+	/**
+	 * Brings local up to date with the primary at the other end of socket,
+	 * which must be running serve(). This doesn't close the socket.
+	 *
+	 * @param socket A socket connected to the primary.
+	 * @param local The replica's tree.
+	 * @param keyCodec How to encode the keys.
+	 * @param valueCodec How to encode the values.
+	 * @return The replica's new tree, with the same entries as the primary's.
+	 * @throws IOException If the socket fails.
+	 */
+	public static <K extends Comparable<K>,V> Result<K,V> pull(Socket socket, Bst<K,V> local, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		Puller<K,V> puller = new Puller<K,V>(socket, keyCodec, valueCodec);
+		Bst<K,V> tree = puller.sync(local, null, null);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(DONE);
+		writeFrame(puller.out, bytes);
+		return new Result<K,V>(tree, puller.entriesReceived, puller.roundTrips);
+	}
+
+	/**
+	 * The replica's side of a pull().
+	 */
+	private static final class Puller<K extends Comparable<K>,V> {
+		final DataInputStream in;
+		final DataOutputStream out;
+		final Codec<K> keyCodec;
+		final Codec<V> valueCodec;
+		int entriesReceived;
+		int roundTrips;
+
+		Puller(Socket socket, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+		}
+
+		/**
+		 * Brings the range [from, to) of local up to date, and returns the new
+		 * tree. A null bound means there is no bound on that side.
+		 */
+		Bst<K,V> sync(Bst<K,V> local, K from, K to) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream request = new DataOutputStream(bytes);
+			request.writeByte(RANGE);
+			request.writeBoolean(from != null);
+			if(from != null) this.keyCodec.write(from, request);
+			request.writeBoolean(to != null);
+			if(to != null) this.keyCodec.write(to, request);
+			request.writeInt(count(local, from, to));
+			request.writeLong(hash(local, from, to));
+			writeFrame(this.out, bytes);
+			this.roundTrips++;
+
+			ByteBuffer reply = readFrame(this.in);
+			byte kind = reply.get();
+			if(kind == MATCH) {
+				return local;
+			}
+			else if(kind == SPLIT) {
+				K middle = this.keyCodec.read(reply);
+				return sync(sync(local, from, middle), middle, to);
+			}
+			List<Entry<K,V>> entries = new ArrayList<Entry<K,V>>();
+			for(int n = reply.getInt(); n > 0; n--) {
+				K k = this.keyCodec.read(reply);
+				entries.add(new Entry<K,V>(k, this.valueCodec.read(reply)));
+			}
+			this.entriesReceived += entries.size();
+			return replace(local, from, to, entries);
+		}
+	}
+
+	/**
+	 * Replaces the entries of t in [from, to) with the given sorted entries,
+	 * by splitting t around from and to and joining the outside parts back
+	 * on either side of the new entries. This is O(height + entries).
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V> replace(Bst<K,V> t, K from, K to, List<Entry<K,V>> entries) {
+		Bst<K,V> lower = null;
+		Bst<K,V> rest = t;
+		if(from != null) {
+			BstSetOperations.Split<K,V> s = BstSetOperations.split(t, from);
+			lower = s.less;
+			rest = s.greater;
+		}
+		Bst<K,V> upper = null;
+		if(to != null) {
+			BstSetOperations.Split<K,V> s = BstSetOperations.split(rest, to);
+			upper = (s.found == null) ? s.greater : s.greater.put(s.found.getKey(), s.found.getValue());
+		}
+
+		@SuppressWarnings("unchecked")
+		Entry<K,V>[] sorted = entries.toArray((Entry<K,V>[]) new Entry<?,?>[entries.size()]);
+		Bst<K,V> result = AvlFork.fromSorted(sorted);
+		if(lower != null) result = BstSetOperations.join(lower, result);
+		if(upper != null) result = BstSetOperations.join(result, upper);
+		return result;
+	}
+
+	/**
+	 * The number of keys of t in [from, to).
+	 */
+	private static <K extends Comparable<K>,V> int count(Bst<K,V> t, K from, K to) {
+		return ((to == null) ? t.size() : t.rank(to)) - ((from == null) ? 0 : t.rank(from));
+	}
+
+	/**
+	 * The hash of the entries of t in [from, to).
+	 */
+	private static <K extends Comparable<K>,V> long hash(Bst<K,V> t, K from, K to) {
+		return ((to == null) ? t.contentHash() : t.prefixHash(to)) - ((from == null) ? 0 : t.prefixHash(from));
+	}
+
+	private static void writeFrame(DataOutputStream out, ByteArrayOutputStream bytes) throws IOException {
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		out.flush();
+	}
+
+	private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+		byte[] frame = new byte[in.readInt()];
+		in.readFully(frame);
+		return ByteBuffer.wrap(frame);
+	}
+}
@@ -1,6 +1,17 @@
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	
@@ -9,7 +20,7 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	/**
 	 * Creates a new instance of the BstTable class. 
 	 * 
-	 * This sets this.table to a new instance of Empty. Once a
+	 * This sets this.table to the shared Empty tree. Once a
 	 * K:V pair is added (using put), Empty will handle this and
 	 * create a new Fork. 
 	 * 
@@ -19,7 +30,7 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	 * ArrayList.
 	 */
 	public BstTable() {
-		this.table = new Empty<K,V>();
+		this.table = Empty.<K,V>empty();
 	}
 	
 	/**
@@ -32,6 +43,137 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 		this.table = tree;
 	}
 
+	/**
+	 * Builds a table from entries which are already sorted by key, without
+	 * calling put().
+	 * 
+	 * @param entries The entries, in strictly increasing key order.
+	 * @return A table whose tree has minimal height.
+	 * @throws IllegalArgumentException If the keys are not strictly increasing.
+	 */
+	public static <K extends Comparable<K>,V> BstTable<K,V> fromSorted(Entry<K,V>[] entries) {
+		return fromSorted(Arrays.asList(entries).iterator(), entries.length);
+	}
+	
+	/**
+	 * Builds a table from exactly size entries, which are already sorted by
+	 * key, without calling put().
+	 * 
+	 * The tree is built in one pass over the iterator : each Fork's left
+	 * branch is built from the first half of its entries, then its root is
+	 * taken, then its right branch is built from the rest. Nothing is
+	 * buffered, and the only allocation is one Fork per entry.
+	 * 
+	 * @param entries The entries, in strictly increasing key order.
+	 * @param size The number of entries the iterator will return.
+	 * @return A table whose tree has minimal height.
+	 * @throws IllegalArgumentException If the keys are not strictly increasing, or there are not exactly size of them.
+	 */
+	public static <K extends Comparable<K>,V> BstTable<K,V> fromSorted(Iterator<Entry<K,V>> entries, int size) {
+		SortedLoader<K,V> loader = new SortedLoader<K,V>(entries);
+		Bst<K,V> tree = loader.build(size);
+		if(entries.hasNext()) {
+			throw new IllegalArgumentException("more than " + size + " entries");
+		}
+		return new BstTable<K,V>(tree);
+	}
+	
+	/**
+	 * Builds a table from entries which are already sorted by key, without
+	 * calling put(). The number of entries isn't known in advance, so they
+	 * are collected first ; use fromSorted(entries, size) when you know it.
+	 * 
+	 * @param entries The entries, in strictly increasing key order.
+	 * @return A table whose tree has minimal height.
+	 * @throws IllegalArgumentException If the keys are not strictly increasing.
+	 */
+	public static <K extends Comparable<K>,V> BstTable<K,V> fromSorted(Iterator<Entry<K,V>> entries) {
+		ArrayList<Entry<K,V>> buffer = new ArrayList<Entry<K,V>>();
+		while(entries.hasNext()) buffer.add(entries.next());
+		return fromSorted(buffer.iterator(), buffer.size());
+	}
+	
+	/**
+	 * Builds a table from a stream of entries which are already sorted by
+	 * key. If the stream knows its exact size the entries are not buffered.
+	 * 
+	 * @param entries The entries, in strictly increasing key order.
+	 * @return A table whose tree has minimal height.
+	 * @throws IllegalArgumentException If the keys are not strictly increasing.
+	 */
+	public static <K extends Comparable<K>,V> BstTable<K,V> fromSorted(Stream<Entry<K,V>> entries) {
+		Spliterator<Entry<K,V>> spliterator = entries.spliterator();
+		long size = spliterator.getExactSizeIfKnown();
+		if(size >= 0 && size <= Integer.MAX_VALUE) {
+			return fromSorted(Spliterators.iterator(spliterator), (int) size);
+		}
+		return fromSorted(Spliterators.iterator(spliterator));
+	}
+	
+	/**
+	 * Builds balanced trees from sorted iterators, for fromSorted().
+	 */
+	private static final class SortedLoader<K extends Comparable<K>,V> {
+		
+		private final Iterator<Entry<K,V>> entries;
+		private K previous = null;
+		
+		SortedLoader(Iterator<Entry<K,V>> entries) {
+			this.entries = entries;
+		}
+		
+		/**
+		 * Builds a tree of minimal height from the next n entries. The middle
+		 * entry (or the one after it) becomes the root, as in Fork.balanced().
+		 */
+		Bst<K,V> build(int n) {
+			if(n == 0) return Empty.<K,V>empty();
+			int leftSize = n / 2;
+			Bst<K,V> left = build(leftSize);
+			Entry<K,V> root = next();
+			Bst<K,V> right = build(n - leftSize - 1);
+			return new Fork<K,V>(root, left, right);
+		}
+		
+		/**
+		 * Takes the next entry, checking that its key is bigger than the last one.
+		 */
+		private Entry<K,V> next() {
+			Entry<K,V> e;
+			try {
+				e = this.entries.next();
+			}
+			catch(NoSuchElementException ex) {
+				throw new IllegalArgumentException("fewer entries than expected");
+			}
+			if(this.previous != null && this.previous.compareTo(e.getKey()) >= 0) {
+				throw new IllegalArgumentException("keys are not in strictly increasing order at " + e.getKey());
+			}
+			this.previous = e.getKey();
+			return e;
+		}
+	}
+
+	/**
+	 * Returns the tree behind this table. Trees are immutable, so this is
+	 * safe to share.
+	 * 
+	 * @return The tree holding the entries of this table.
+	 */
+	public Bst<K,V> getTree() {
+		return this.table;
+	}
+
+	/**
+	 * Returns a read-only snapshot of this table laid out in flat arrays
+	 * for fast lookups (see FrozenTable). This takes O(n).
+	 * 
+	 * @return A frozen copy of this table.
+	 */
+	public FrozenTable<K,V> freeze() {
+		return new FrozenTable<K,V>(this.table);
+	}
+
 	/**
 	 * Returns whether or not the table contains an Entry with
 	 * key, k.
@@ -41,6 +183,7 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	 */
 	@Override
 	public boolean containsKey(K k) {
+		if(BstMetrics.ENABLED) return BstMetrics.record(BstMetrics.Operation.CONTAINS, () -> this.table.has(k));
 		return this.table.has(k);
 	}
 
@@ -53,6 +196,7 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	 */
 	@Override
 	public Optional<V> get(K k) {
+		if(BstMetrics.ENABLED) return BstMetrics.record(BstMetrics.Operation.GET, () -> this.table.find(k));
 		return this.table.find(k);
 	}
 
@@ -77,6 +221,7 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	 */
 	@Override
 	public Table<K,V> put(K k, V v) {
+		if(BstMetrics.ENABLED) return new BstTable<K,V>(BstMetrics.record(BstMetrics.Operation.PUT, () -> this.table.put(k,v)));
         return new BstTable<K,V>(this.table.put(k,v));
 	}
 
@@ -94,9 +239,210 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 		 * If the Bst contains k, then return a new BstTable containing a new tree, which is equal to the result
 		 * of delete(k) on the current tree, otherwise, return Optional.empty().
 		 */
+		if(BstMetrics.ENABLED) return BstMetrics.record(BstMetrics.Operation.REMOVE, () -> this.table.has(k) ? this.table.delete(k) : Optional.<Bst<K,V>>empty()).map(t -> new BstTable<K,V>(t));
 	    return (this.table.has(k)) ? Optional.of((new BstTable<K,V>(this.table.delete(k).get()))) : (Optional.empty());
 	}
 
+	/**
+	 * Returns the entry with the largest key smaller than or equal to k, if
+	 * there is one.
+	 * 
+	 * @param k The key to search for.
+	 * @return The floor entry of k, or Optional.empty() if there is none.
+	 */
+	public Optional<Entry<K,V>> floorEntry(K k) {
+		return this.table.floorEntry(k);
+	}
+
+	/**
+	 * Returns the entry with the smallest key bigger than or equal to k, if
+	 * there is one.
+	 * 
+	 * @param k The key to search for.
+	 * @return The ceiling entry of k, or Optional.empty() if there is none.
+	 */
+	public Optional<Entry<K,V>> ceilingEntry(K k) {
+		return this.table.ceilingEntry(k);
+	}
+
+	/**
+	 * Returns the entry with the largest key strictly smaller than k, if
+	 * there is one.
+	 * 
+	 * @param k The key to search for.
+	 * @return The lower entry of k, or Optional.empty() if there is none.
+	 */
+	public Optional<Entry<K,V>> lowerEntry(K k) {
+		return this.table.lowerEntry(k);
+	}
+
+	/**
+	 * Returns the entry with the smallest key strictly bigger than k, if
+	 * there is one.
+	 * 
+	 * @param k The key to search for.
+	 * @return The higher entry of k, or Optional.empty() if there is none.
+	 */
+	public Optional<Entry<K,V>> higherEntry(K k) {
+		return this.table.higherEntry(k);
+	}
+
+	/**
+	 * Returns a table with just the entries whose keys are between from
+	 * and to. This builds O(log n) new nodes on a balanced tree ; every
+	 * subtree inside the range is shared with this table.
+	 * 
+	 * @param from The lower bound.
+	 * @param fromInclusive Whether or not an entry with key from is included.
+	 * @param to The upper bound.
+	 * @param toInclusive Whether or not an entry with key to is included.
+	 * @return A table with the entries in the range.
+	 * @throws IllegalArgumentException If from is bigger than to.
+	 */
+	public BstTable<K,V> subTable(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		if(from.compareTo(to) > 0) {
+			throw new IllegalArgumentException("from > to");
+		}
+		return new BstTable<K,V>(this.table.headTree(to, toInclusive).tailTree(from, fromInclusive));
+	}
+
+	/**
+	 * Returns a table with just the entries whose keys are smaller than to
+	 * (or equal to it, if inclusive).
+	 * 
+	 * @param to The upper bound.
+	 * @param inclusive Whether or not an entry with key to is included.
+	 * @return A table with the entries up to to.
+	 */
+	public BstTable<K,V> headTable(K to, boolean inclusive) {
+		return new BstTable<K,V>(this.table.headTree(to, inclusive));
+	}
+
+	/**
+	 * Returns a table with just the entries whose keys are bigger than from
+	 * (or equal to it, if inclusive).
+	 * 
+	 * @param from The lower bound.
+	 * @param inclusive Whether or not an entry with key from is included.
+	 * @return A table with the entries from from.
+	 */
+	public BstTable<K,V> tailTable(K from, boolean inclusive) {
+		return new BstTable<K,V>(this.table.tailTree(from, inclusive));
+	}
+
+	/**
+	 * Returns the entries whose keys are between from and to, in key order,
+	 * without building anything. Iterating over k entries visits O(log n + k)
+	 * nodes on a balanced tree.
+	 * 
+	 * @param from The lower bound, or null for no lower bound.
+	 * @param fromInclusive Whether or not an entry with key from is included.
+	 * @param to The upper bound, or null for no upper bound.
+	 * @param toInclusive Whether or not an entry with key to is included.
+	 * @return An iterator over the entries in the range.
+	 */
+	public Iterator<Entry<K,V>> scan(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		return new BstIterator<K,V>(this.table, from, fromInclusive, to, toInclusive);
+	}
+
+	/**
+	 * Returns a table with the entries of both tables. Subtrees that only
+	 * one of the tables has entries in are shared with it, and large tables
+	 * are merged in parallel (see BstSetOperations).
+	 * 
+	 * @param other The other table.
+	 * @param resolve Picks the value for a key in both tables, given (value here, value in other).
+	 * @return The union of the two tables.
+	 */
+	public BstTable<K,V> union(BstTable<K,V> other, BinaryOperator<V> resolve) {
+		return new BstTable<K,V>(BstSetOperations.union(this.table, other.table, resolve));
+	}
+
+	/**
+	 * Returns a table with the entries whose keys are in both tables.
+	 * 
+	 * @param other The other table.
+	 * @param resolve Picks the value for each key, given (value here, value in other).
+	 * @return The intersection of the two tables.
+	 */
+	public BstTable<K,V> intersection(BstTable<K,V> other, BinaryOperator<V> resolve) {
+		return new BstTable<K,V>(BstSetOperations.intersection(this.table, other.table, resolve));
+	}
+
+	/**
+	 * Returns a table with the entries of this table whose keys are not in
+	 * the other table.
+	 * 
+	 * @param other The other table.
+	 * @return The difference of the two tables.
+	 */
+	public BstTable<K,V> difference(BstTable<K,V> other) {
+		return new BstTable<K,V>(BstSetOperations.difference(this.table, other.table));
+	}
+
+	/**
+	 * Passes every key which was added, removed or given a new value in
+	 * newer, compared with this table, to changes in key order. Subtrees the
+	 * two tables share are skipped, so this takes time in proportion to the
+	 * changes, not the size (see BstDiff).
+	 * 
+	 * @param newer The table to compare this one with.
+	 * @param changes Receives each difference.
+	 */
+	public void diff(BstTable<K,V> newer, Consumer<BstDiff.Change<K,V>> changes) {
+		BstDiff.diff(this.table, newer.table, changes);
+	}
+
+	/**
+	 * Two tables are equal if they have the same entries (keys and values
+	 * equal by equals()), whatever the shapes of their trees. Every tree
+	 * stores its size and contentHash(), so tables which differ almost
+	 * always have one of them differ, and are told apart in O(1); only
+	 * tables which really are equal (or collide) are compared entry by
+	 * entry.
+	 * 
+	 * @param o The object to compare with.
+	 * @return Whether o is a BstTable with the same entries.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) return true;
+		if(!(o instanceof BstTable)) return false;
+		Bst<?,?> other = ((BstTable<?,?>) o).table;
+		if(this.table == other) return true;
+		if(this.table.size() != other.size() || this.table.contentHash() != other.contentHash()) return false;
+
+		Iterator<Entry<K,V>> mine = this.table.iterator();
+		Iterator<? extends Entry<?,?>> theirs = other.iterator();
+		while(mine.hasNext()) {
+			Entry<K,V> a = mine.next();
+			Entry<?,?> b = theirs.next();
+			if(!a.getKey().equals(b.getKey()) || !Objects.equals(a.getValue(), b.getValue())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a hash code made from the tree's contentHash(), in O(1).
+	 * 
+	 * @return The hash code of the entries of this table.
+	 */
+	@Override
+	public int hashCode() {
+		long h = this.table.contentHash();
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Returns a builder which starts out with the entries of this table, for
+	 * applying a batch of updates without making a new table for each one.
+	 * 
+	 * @return A new builder sharing this table's tree.
+	 */
+	public BstTableBuilder<K,V> toBuilder() {
+		return new BstTableBuilder<K,V>(this.table);
+	}
+
 	/**
 	 * Returns the size of the table.
 	 * 
@@ -108,60 +454,141 @@ public class BstTable<K extends Comparable<K>,V> implements Table<K,V> {
 	}
 
 	/**
-	 * Return an Array of all of the values in the table.
+	 * Returns the number of keys in the table which are smaller than k.
+	 * 
+	 * @param k The key to find the rank of.
+	 * @return The position of k in key order, if it is in the table.
+	 */
+	public int rank(K k) {
+		return this.table.rank(k);
+	}
+
+	/**
+	 * Returns the Entry with the i-th smallest key (counting from 0), if
+	 * 0 <= i < size(). Use this to page through the table by offset.
 	 * 
-	 * @return An Array containing all values in the table.
+	 * @param i The position of the Entry in key order.
+	 * @return The i-th Entry of the table, or Optional.empty() if i is out of range.
+	 */
+	public Optional<Entry<K,V>> select(int i) {
+		return this.table.select(i);
+	}
+
+	/**
+	 * Returns the values in the table, in key order.
+	 * 
+	 * This is a read-only view backed by the tree, so nothing is copied : the
+	 * values are found lazily as the collection is iterated over.
+	 * 
+	 * @return A collection containing all values in the table.
 	 */
 	@Override
 	public Collection<V> values() {
-		/*
-		 * Invoke an Array of Entries, using the ancient Goodman ritual.
-		 */
-		Object[] a = new Object[this.size()];
-	    @SuppressWarnings("unchecked")
-	    Entry<K,V>[] entries = (Entry<K,V>[]) a;
-	    
-	    /*
-	     * Save all of the Entries from the table 
-	     */
-	    this.table.saveInOrder(entries); 
-	
-	    /*
-	     * Create a new ArrayList of values to hold the values, and 
-	     * populate it with all of the values.
-	     */
-	    ArrayList<V> values = new ArrayList<V>();
-	    for(Entry<K,V> e : entries) values.add(e.getValue());
-	    
-	    return values;
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Iterator<Entry<K,V>> entries = BstTable.this.table.iterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+					
+					@Override
+					public V next() {
+						return entries.next().getValue();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return BstTable.this.size();
+			}
+		};
 	}
 
 	/**
-	 * Return an Array of all the keys in the table.
+	 * Returns the keys in the table, in order.
 	 * 
-	 * @return An Array containing all keys in the table.
+	 * This is a read-only view backed by the tree, so nothing is copied, and
+	 * contains() is a lookup in the tree rather than a scan.
+	 * 
+	 * @return A collection containing all keys in the table.
 	 */
 	@Override
 	public Collection<K> keys() {
-		/*
-		 * Invoke an Array of Entries, using the ancient Goodman ritual.
-		 */
-		Object[] a = new Object[this.size()];
-	    @SuppressWarnings("unchecked")
-	    Entry<K,V>[] entries = (Entry<K,V>[]) a;
-	    
-	    /*
-	     * Save all of the Entries from the table 
-	     */
-	    this.table.saveInOrder(entries); 
-	    
-	    /*
-	     * Create a new ArrayList of keys to hold the values, and 
-	     * populate it with all of the keys.
-	     */
-	    ArrayList<K> keys = new ArrayList<K>();
-	    for(Entry<K,V> e : entries) keys.add(e.getKey());
-	    
-	    return keys;
+		return new AbstractCollection<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				Iterator<Entry<K,V>> entries = BstTable.this.table.iterator();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+					
+					@Override
+					public K next() {
+						return entries.next().getKey();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return BstTable.this.size();
+			}
+			
+			@Override
+			@SuppressWarnings("unchecked")
+			public boolean contains(Object o) {
+				try {
+					return o != null && BstTable.this.containsKey((K) o);
+				}
+				catch(ClassCastException e) {
+					return false;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the entries in the table, in key order, as a read-only view
+	 * backed by the tree.
+	 * 
+	 * @return A collection containing all entries in the table.
+	 */
+	public Collection<Entry<K,V>> entries() {
+		return new AbstractCollection<Entry<K,V>>() {
+			@Override
+			public Iterator<Entry<K,V>> iterator() {
+				return BstTable.this.table.iterator();
+			}
+			
+			@Override
+			public int size() {
+				return BstTable.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Returns a sequential stream of the entries in the table, in key order.
+	 * 
+	 * @return A stream of the entries in the table.
+	 */
+	public Stream<Entry<K,V>> stream() {
+		return StreamSupport.stream(this.table.spliterator(), false);
+	}
+
+	/**
+	 * Returns a parallel stream of the entries in the table. The work is
+	 * divided up along the branches of the tree, without copying it.
+	 * 
+	 * @return A parallel stream of the entries in the table.
+	 */
+	public Stream<Entry<K,V>> parallelStream() {
+		return StreamSupport.stream(this.table.spliterator(), true);
 	}
 }
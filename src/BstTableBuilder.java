@@ -0,0 +1,346 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A mutable builder for batches of updates to a BstTable.
+ *
+ * BstTable.put() makes a new table, and a new path of Forks, for every
+ * call. A builder instead copies each Fork it needs to change in to a
+ * mutable node the first time it reaches it, and then updates that node
+ * in place for the rest of the batch. Every subtree the batch doesn't
+ * touch stays shared with the table the builder came from. build()
+ * turns the mutable nodes back in to Forks and returns an immutable
+ * BstTable.
+ *
+ *     BstTableBuilder<K,V> b = table.toBuilder();
+ *     for(...) b.put(k, v);
+ *     BstTable<K,V> updated = b.build();
+ *
+ * The source table is never modified. A builder is not thread-safe, and
+ * like Fork.put() it doesn't rebalance as it goes. If the batch makes the
+ * tree much deeper than a balanced one (a sorted load makes it a list),
+ * build() rebuilds it balanced from its entries, in O(n), rather than
+ * freezing it as it is; otherwise call balanced() on the result if you
+ * need minimal height.
+ *
+ * If the source tree is an AVL tree (an AvlFork or AvlEmpty), so is the
+ * result : build() joins the changed nodes back together with
+ * AvlFork.join(), which rebalances them, and later puts keep balancing it.
+ */
+public class BstTableBuilder<K extends Comparable<K>,V> {
+
+	/*
+	 * The tree being built is either an owned, mutable Node (root) or, when
+	 * root is null, a shared immutable tree (shared). Every Node's branches
+	 * follow the same rule.
+	 */
+	private Node<K,V> root;
+	private Bst<K,V> shared;
+	private int size;
+
+	/*
+	 * Whether the source tree was an AVL tree, and so the result must be
+	 * one too, and the empty tree to hang under new leaves.
+	 */
+	private final boolean avl;
+	private final Empty<K,V> empty;
+
+	/*
+	 * The deepest put() since the last build(), counting from the root. Once
+	 * it is more than MAX_DEPTH_FACTOR times the height of a balanced tree
+	 * of the same size, build() rebuilds the tree. A random load stays well
+	 * under this; a sorted one soon passes it.
+	 */
+	private int depth;
+	private static final int MAX_DEPTH_FACTOR = 4;
+
+	/**
+	 * Creates a new builder which starts out with the entries of tree,
+	 * sharing all of its nodes.
+	 *
+	 * @param tree The tree to start from.
+	 */
+	public BstTableBuilder(Bst<K,V> tree) {
+		this.root = null;
+		this.shared = tree;
+		this.size = tree.size();
+		this.avl = (tree instanceof AvlFork) || (tree instanceof AvlEmpty);
+		this.empty = this.avl ? AvlEmpty.<K,V>empty() : Empty.<K,V>empty();
+	}
+
+	/**
+	 * Inserts the key:value pair, k:v, or replaces the value of k if it is
+	 * already there.
+	 *
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 * @return This builder.
+	 */
+	public BstTableBuilder<K,V> put(K k, V v) {
+		if(this.root == null) {
+			if(this.shared.isEmpty()) {
+				this.root = new Node<K,V>(new Entry<K,V>(k, v), this.empty);
+				this.size++;
+				return this;
+			}
+			this.root = new Node<K,V>((Fork<K,V>) this.shared);
+		}
+
+		/*
+		 * Walk down the tree, copying shared Forks in to owned nodes as we
+		 * reach them, until we find k or fall off the bottom.
+		 */
+		Node<K,V> n = this.root;
+		for(int depth = 1; ; depth++) {
+			int comparison = k.compareTo(n.entry.getKey());
+			if(comparison == 0) {
+				n.entry = new Entry<K,V>(k, v);
+				return this;
+			}
+			Node<K,V> child = owned(n, comparison < 0);
+			if(child == null) {
+				replace(n, comparison < 0, new Node<K,V>(new Entry<K,V>(k, v), this.empty), this.empty);
+				this.size++;
+				this.depth = Math.max(this.depth, depth);
+				return this;
+			}
+			n = child;
+		}
+	}
+
+	/**
+	 * Removes the entry with key k, if there is one.
+	 *
+	 * @param k The key of the entry to remove.
+	 * @return This builder.
+	 */
+	public BstTableBuilder<K,V> remove(K k) {
+		/*
+		 * Look k up first, so that removing a key which isn't there copies
+		 * nothing.
+		 */
+		if(!contains(k)) {
+			return this;
+		}
+		if(this.root == null) {
+			this.root = new Node<K,V>((Fork<K,V>) this.shared);
+		}
+
+		/*
+		 * Find the node with key k, remembering its parent and which side of
+		 * the parent it hangs from.
+		 */
+		Node<K,V> parent = null;
+		boolean fromLeft = false;
+		Node<K,V> n = this.root;
+		while(true) {
+			int comparison = k.compareTo(n.entry.getKey());
+			if(comparison == 0) {
+				break;
+			}
+			fromLeft = comparison < 0;
+			Node<K,V> child = owned(n, fromLeft);
+			parent = n;
+			n = child;
+		}
+		this.size--;
+
+		/*
+		 * If either branch is empty, the other one takes the node's place.
+		 */
+		if(n.left == null && n.sharedLeft.isEmpty()) {
+			replace(parent, fromLeft, n.right, n.sharedRight);
+			return this;
+		}
+		else if(n.right == null && n.sharedRight.isEmpty()) {
+			replace(parent, fromLeft, n.left, n.sharedLeft);
+			return this;
+		}
+
+		/*
+		 * Otherwise, the largest entry of the left branch takes the place of
+		 * the deleted entry, and is removed from the left branch.
+		 */
+		Node<K,V> largestParent = n;
+		boolean largestFromLeft = true;
+		Node<K,V> largest = owned(n, true);
+		Node<K,V> next;
+		while((next = owned(largest, false)) != null) {
+			largestParent = largest;
+			largestFromLeft = false;
+			largest = next;
+		}
+		n.entry = largest.entry;
+		replace(largestParent, largestFromLeft, largest.left, largest.sharedLeft);
+		return this;
+	}
+
+	/**
+	 * Returns whether k is in the table being built, without copying any
+	 * shared nodes.
+	 */
+	private boolean contains(K k) {
+		Node<K,V> n = this.root;
+		Bst<K,V> shared = this.shared;
+		while(n != null) {
+			int comparison = k.compareTo(n.entry.getKey());
+			if(comparison == 0) {
+				return true;
+			}
+			shared = (comparison < 0) ? n.sharedLeft : n.sharedRight;
+			n = (comparison < 0) ? n.left : n.right;
+		}
+		return shared.has(k);
+	}
+
+	/**
+	 * Returns the number of entries in the table being built.
+	 *
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Turns the owned nodes back in to Forks, and returns the resulting
+	 * immutable table. Subtrees that weren't changed are reused as they
+	 * are. The builder can carry on being used afterwards, without
+	 * affecting the table returned. If the source tree was an AVL tree, the
+	 * result is a balanced AVL tree too.
+	 *
+	 * @return An immutable table with all of the updates applied.
+	 */
+	public BstTable<K,V> build() {
+		if(this.root != null && this.depth > MAX_DEPTH_FACTOR * (32 - Integer.numberOfLeadingZeros(this.size))) {
+			/*
+			 * Freezing recurses once per level, and so would every later
+			 * operation on the tree, so a deep tree is rebuilt balanced instead.
+			 */
+			ArrayList<Entry<K,V>> entries = entries(this.root, this.shared, this.size);
+			if(this.avl) {
+				@SuppressWarnings("unchecked")
+				Entry<K,V>[] sorted = entries.toArray((Entry<K,V>[]) new Entry<?,?>[entries.size()]);
+				this.shared = AvlFork.fromSorted(sorted);
+			}
+			else {
+				this.shared = BstTable.fromSorted(entries.iterator(), entries.size()).getTree();
+			}
+		}
+		else {
+			this.shared = freeze(this.root, this.shared, this.avl);
+		}
+		this.root = null;
+		this.depth = 0;
+		return new BstTable<K,V>(this.shared);
+	}
+
+	/**
+	 * Returns the given branch of n as an owned node, copying it if it is a
+	 * shared Fork, or null if the branch is empty.
+	 */
+	private static <K extends Comparable<K>,V> Node<K,V> owned(Node<K,V> n, boolean left) {
+		if(left) {
+			if(n.left == null && !n.sharedLeft.isEmpty()) n.left = new Node<K,V>((Fork<K,V>) n.sharedLeft);
+			return n.left;
+		}
+		if(n.right == null && !n.sharedRight.isEmpty()) n.right = new Node<K,V>((Fork<K,V>) n.sharedRight);
+		return n.right;
+	}
+
+	/**
+	 * Puts the tree given by (owned, shared) in the given branch of parent,
+	 * or at the root if parent is null.
+	 */
+	private void replace(Node<K,V> parent, boolean left, Node<K,V> owned, Bst<K,V> shared) {
+		if(parent == null) {
+			this.root = owned;
+			this.shared = shared;
+		}
+		else if(left) {
+			parent.left = owned;
+			parent.sharedLeft = shared;
+		}
+		else {
+			parent.right = owned;
+			parent.sharedRight = shared;
+		}
+	}
+
+	/**
+	 * Builds an immutable tree from (owned, shared). For an AVL tree, each
+	 * owned node is joined to its frozen branches with AvlFork.join(),
+	 * which rebalances it however far the batch has unbalanced it.
+	 */
+	private static <K extends Comparable<K>,V> Bst<K,V> freeze(Node<K,V> owned, Bst<K,V> shared, boolean avl) {
+		if(owned == null) {
+			return shared;
+		}
+		Bst<K,V> left = freeze(owned.left, owned.sharedLeft, avl);
+		Bst<K,V> right = freeze(owned.right, owned.sharedRight, avl);
+		if(avl) {
+			return AvlFork.join(left, owned.entry, right);
+		}
+		return new Fork<K,V>(owned.entry, left, right);
+	}
+
+	/**
+	 * Returns the entries of (owned, shared) in key order. This walks the
+	 * owned nodes with an explicit stack, as they may be too deep to recurse
+	 * through.
+	 */
+	private static <K extends Comparable<K>,V> ArrayList<Entry<K,V>> entries(Node<K,V> owned, Bst<K,V> shared, int size) {
+		ArrayList<Entry<K,V>> entries = new ArrayList<Entry<K,V>>(size);
+		if(owned == null) {
+			for(Entry<K,V> e : shared) entries.add(e);
+			return entries;
+		}
+		ArrayDeque<Node<K,V>> stack = new ArrayDeque<Node<K,V>>();
+		Node<K,V> n = owned;
+		while(n != null || !stack.isEmpty()) {
+			while(n != null) {
+				stack.push(n);
+				if(n.left == null) {
+					for(Entry<K,V> e : n.sharedLeft) entries.add(e);
+				}
+				n = n.left;
+			}
+			n = stack.pop();
+			entries.add(n.entry);
+			if(n.right == null) {
+				for(Entry<K,V> e : n.sharedRight) entries.add(e);
+			}
+			n = n.right;
+		}
+		return entries;
+	}
+
+	/**
+	 * A mutable node, owned by exactly one builder. Each branch is either an
+	 * owned Node (left, right) or, when that is null, a shared immutable tree
+	 * (sharedLeft, sharedRight), which may be Empty.
+	 */
+	private static final class Node<K extends Comparable<K>,V> {
+		Entry<K,V> entry;
+		Node<K,V> left, right;
+		Bst<K,V> sharedLeft, sharedRight;
+
+		/**
+		 * A new leaf, whose branches are both empty.
+		 */
+		Node(Entry<K,V> entry, Empty<K,V> empty) {
+			this.entry = entry;
+			this.sharedLeft = empty;
+			this.sharedRight = empty;
+		}
+
+		/**
+		 * A copy of f, still sharing both of its branches.
+		 */
+		Node(Fork<K,V> f) {
+			this.entry = f.root;
+			this.sharedLeft = f.left;
+			this.sharedRight = f.right;
+		}
+	}
+}
@@ -9,7 +9,7 @@
 
 public class BstTests {
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws java.io.IOException, InterruptedException {
 	/*
 	 * Generic Tests.
 	 */
@@ -40,6 +40,13 @@ public class BstTests {
     System.out.println(t4);
     System.out.println("Test 4 Passed");
 
+    assert(t4.has(25) && t4.has(31) && t4.has(40));
+    assert(!t4.has(24) && !t4.has(32) && !t4.has(41));
+    assert(t4.find(31).get().equals("Kathy"));
+    assert(t4.find(37).get().equals("Monica"));
+    assert(!t4.find(36).isPresent());
+    System.out.println("Test 4a Passed");
+
     //Test Fork.printInOrder();
     System.out.println("");
     System.out.println("Testing Fork.printInOrder()");
@@ -54,6 +61,559 @@ public class BstTests {
     System.out.println(t5);
     System.out.println("Test 5 Passed");
     
+    System.out.println("-----Testing AvlFork-----");
+    Bst<Integer,String> t8 = new AvlEmpty<>();
+    for(int i = 0; i < 1000; i++) t8 = t8.put(i, "v" + i);
+    assert(t8.size() == 1000);
+    assert(t8.height() <= 2 * log2floor(t8.size()));
+    assert(t8.find(500).get().equals("v500"));
+    for(int i = 0; i < 1000; i += 2) t8 = t8.delete(i).get();
+    assert(t8.size() == 500);
+    assert(t8.height() <= 2 * log2floor(t8.size()));
+    assert(!t8.has(500) && t8.has(501));
+    assert(!t8.delete(500).isPresent());
+    assert(t8.balanced().height() <= log2floor(t8.size()));
+    System.out.println("Test 6 Passed");
+
+    System.out.println("-----Testing rank() and select()-----");
+    assert(t4.rank(25) == 0 && t4.rank(31) == 2 && t4.rank(40) == 5);
+    assert(t4.rank(32) == 3 && t4.rank(100) == 6 && t4.rank(0) == 0);
+    assert(t4.select(0).get().getKey() == 25);
+    assert(t4.select(2).get().getValue().equals("Kathy"));
+    assert(t4.select(5).get().getKey() == 40);
+    assert(!t4.select(6).isPresent() && !t4.select(-1).isPresent());
+    for(int i = 0; i < t8.size(); i++) assert(t8.rank(t8.select(i).get().getKey()) == i);
+    System.out.println("Test 7 Passed");
+
+    System.out.println("-----Testing Empty.empty()-----");
+    Bst<Integer,String> t9 = Empty.<Integer,String>empty().put(2, "b").put(1, "a").put(3, "c");
+    assert(t9.getLeft().get().getLeft().get() == Empty.<Integer,String>empty());
+    assert(t9.getRight().get().getRight().get() == Empty.<Integer,String>empty());
+    assert(t9.delete(2).get().delete(1).get().delete(3).get() == Empty.<Integer,String>empty());
+    assert(Empty.<Integer,String>empty().balanced() == Empty.<Integer,String>empty());
+    System.out.println("Test 8 Passed");
+
+    System.out.println("-----Testing balanced() on a large tree-----");
+    java.util.Random random = new java.util.Random(42);
+    Bst<Integer,String> t10 = Empty.empty();
+    for(int i = 0; i < 100000; i++) {
+      int k = random.nextInt();
+      t10 = t10.put(k, "v" + k);
+    }
+    Bst<Integer,String> t11 = t10.balanced();
+    assert(t11.size() == t10.size());
+    assert(t11.height() == log2floor(t11.size()) - 1);
+    for(int i = 0; i < t10.size(); i++) assert(t11.select(i).get() == t10.select(i).get());
+    System.out.println("Test 9 Passed");
+
+    System.out.println("-----Testing BstTable.fromSorted()-----");
+    @SuppressWarnings("unchecked")
+    Entry<Integer,String>[] sorted = (Entry<Integer,String>[]) new Entry<?,?>[1000];
+    for(int i = 0; i < sorted.length; i++) sorted[i] = new Entry<>(2 * i, "v" + i);
+    BstTable<Integer,String> t12 = BstTable.fromSorted(sorted);
+    assert(t12.size() == 1000);
+    assert(t12.get(998).get().equals("v499") && !t12.containsKey(999));
+    assert(t12.select(123).get() == sorted[123]);
+    BstTable<Integer,String> t13 = BstTable.fromSorted(java.util.Arrays.stream(sorted));
+    assert(t13.size() == 1000 && t13.get(0).get().equals("v0"));
+    BstTable<Integer,String> t14 = BstTable.fromSorted(java.util.Arrays.stream(sorted).filter(e -> e.getKey() % 4 == 0));
+    assert(t14.size() == 500 && t14.containsKey(4) && !t14.containsKey(2));
+    boolean rejected = false;
+    try {
+      BstTable.fromSorted(java.util.Arrays.asList(sorted[1], sorted[0]).iterator());
+    }
+    catch(IllegalArgumentException e) {
+      rejected = true;
+    }
+    assert(rejected);
+    System.out.println("Test 10 Passed");
+
+    System.out.println("-----Testing BstTableBuilder-----");
+    BstTableBuilder<Integer,String> builder = t12.toBuilder();
+    for(int i = 1; i < 2000; i += 2) builder.put(i, "odd" + i);
+    for(int i = 0; i < 2000; i += 4) builder.remove(i);
+    builder.remove(-1).put(998, "changed");
+    BstTable<Integer,String> t15 = builder.build();
+    assert(t12.size() == 1000 && t12.get(998).get().equals("v499") && !t12.containsKey(1));
+    assert(t15.size() == 1500 && builder.size() == 1500);
+    assert(t15.get(1).get().equals("odd1") && t15.get(998).get().equals("changed"));
+    assert(!t15.containsKey(0) && !t15.containsKey(996) && t15.containsKey(2));
+    for(int i = 1; i < t15.size(); i++) assert(t15.select(i - 1).get().getKey() < t15.select(i).get().getKey());
+    builder.put(5000, "after");
+    assert(!t15.containsKey(5000) && builder.build().containsKey(5000));
+    BstTable<Integer,String> t16 = new BstTable<Integer,String>().toBuilder().put(1, "a").put(2, "b").remove(1).remove(2).build();
+    assert(t16.isEmpty());
+    BstTableBuilder<Integer,String> ascending = new BstTable<Integer,String>().toBuilder();
+    for(int i = 0; i < 20000; i++) ascending.put(i, "v" + i);
+    BstTable<Integer,String> t16a = ascending.build();
+    assert(t16a.size() == 20000 && t16a.get(19999).get().equals("v19999") && t16a.getTree().height() <= log2floor(20000));
+    for(int i = 20000; i < 40000; i++) ascending.put(i, "v" + i);
+    ascending.remove(0);
+    BstTable<Integer,String> t16b = ascending.build();
+    assert(t16b.size() == 39999 && !t16b.containsKey(0) && t16b.containsKey(39999) && t16b.getTree().height() <= log2floor(40000));
+    assert(t16a.size() == 20000 && t16a.containsKey(0));
+    BstTableBuilder<Integer,String> absent = t12.toBuilder().put(-1, "first");
+    BstTable<Integer,String> t16c = absent.remove(5001).remove(-3).remove(1).build();
+    assert(t16c.size() == 1001 && t16c.getTree().getRight().get() == t12.getTree().getRight().get());
+    assert(t12.toBuilder().remove(5001).build().getTree() == t12.getTree());
+    BstTable<Integer,String> avlSource = new BstTable<Integer,String>(AvlEmpty.<Integer,String>empty());
+    for(int i = 0; i < 100; i++) avlSource = (BstTable<Integer,String>) avlSource.put(i * 10, "v" + i);
+    BstTable<Integer,String> t16d = avlSource.toBuilder().put(1000, "shallow").put(5, "five").remove(50).build();
+    assert(t16d.size() == 101 && isAvl(t16d.getTree()) && t16d.get(1000).get().equals("shallow") && !t16d.containsKey(50));
+    for(int i = 0; i < 1000; i++) t16d = (BstTable<Integer,String>) t16d.put(2000 + i, "v");
+    assert(isAvl(t16d.getTree()) && t16d.getTree().height() <= 2 * log2floor(t16d.size()));
+    BstTableBuilder<Integer,String> avlBatch = avlSource.toBuilder();
+    for(int i = 0; i < 5000; i++) avlBatch.put(1000 + i, "deep");
+    BstTable<Integer,String> t16e = avlBatch.build();
+    assert(t16e.size() == 5100 && isAvl(t16e.getTree()) && t16e.get(5999).get().equals("deep"));
+    assert(isAvl(new BstTable<Integer,String>(AvlEmpty.<Integer,String>empty()).toBuilder().put(1, "a").build().getTree()));
+    System.out.println("Test 11 Passed");
+
+    System.out.println("-----Testing iterator(), keys(), values() and entries()-----");
+    int position = 0;
+    for(Entry<Integer,String> e : t15.entries()) assert(e == t15.select(position++).get());
+    assert(position == t15.size());
+    java.util.Iterator<Integer> keys = new BstTable<>(t4).keys().iterator();
+    assert(keys.next() == 25 && keys.next() == 30 && keys.next() == 31);
+    assert(new java.util.ArrayList<>(new BstTable<>(t4).values()).equals(java.util.Arrays.asList("Peter", "John", "Kathy", "Nicolas", "Monica", "Mary")));
+    assert(t15.keys().contains(998) && !t15.keys().contains(996) && t15.keys().size() == 1500);
+    assert(!t1.iterator().hasNext() && new BstTable<Integer,String>().values().isEmpty());
+    System.out.println("Test 12 Passed");
+
+    System.out.println("-----Testing stream() and parallelStream()-----");
+    long sequentialSum = t15.stream().mapToLong(e -> e.getKey()).sum();
+    assert(t15.parallelStream().mapToLong(e -> e.getKey()).sum() == sequentialSum);
+    assert(t15.parallelStream().map(e -> e.getKey()).collect(java.util.stream.Collectors.toList()).equals(new java.util.ArrayList<>(t15.keys())));
+    assert(t15.parallelStream().count() == 1500 && new BstTable<Integer,String>().parallelStream().count() == 0);
+    java.util.Spliterator<Entry<Integer,String>> whole = t15.stream().spliterator();
+    java.util.Spliterator<Entry<Integer,String>> prefix = whole.trySplit();
+    assert(prefix.estimateSize() + whole.estimateSize() == 1500);
+    assert(prefix.hasCharacteristics(java.util.Spliterator.SORTED | java.util.Spliterator.SIZED));
+    System.out.println("Test 13 Passed");
+
+    System.out.println("-----Testing range queries-----");
+    BstTable<Integer,String> t17 = t12.subTable(100, true, 200, false);
+    assert(t17.size() == 50 && t17.containsKey(100) && !t17.containsKey(200) && t17.containsKey(198));
+    assert(t12.subTable(99, false, 200, true).size() == 51);
+    assert(t12.headTable(10, false).size() == 5 && t12.headTable(10, true).size() == 6);
+    assert(t12.tailTable(1990, false).size() == 4 && t12.tailTable(1990, true).size() == 5);
+    assert(t12.headTable(5000, true).size() == 1000 && t12.tailTable(5000, true).isEmpty());
+    java.util.Iterator<Entry<Integer,String>> scan = t12.scan(7, true, 13, true);
+    assert(scan.next().getKey() == 8 && scan.next().getKey() == 10 && scan.next().getKey() == 12 && !scan.hasNext());
+    scan = t12.scan(null, false, 4, false);
+    assert(scan.next().getKey() == 0 && scan.next().getKey() == 2 && !scan.hasNext());
+    int scanned = 0;
+    for(scan = t12.scan(1000, false, null, false); scan.hasNext(); scan.next()) scanned++;
+    assert(scanned == 499);
+    BstTable<Integer,String> avlRange = new BstTable<Integer,String>(t8).subTable(101, true, 901, false);
+    assert(avlRange.size() == 400 && isAvl(avlRange.getTree()) && isAvl(new BstTable<Integer,String>(t8).headTable(500, true).getTree()));
+    for(int i = 0; i < 500; i++) avlRange = (BstTable<Integer,String>) avlRange.put(1000 + i, "v");
+    assert(isAvl(avlRange.getTree()) && avlRange.getTree().height() <= 2 * log2floor(avlRange.size()));
+    System.out.println("Test 14 Passed");
+
+    System.out.println("-----Testing floor, ceiling, lower and higher-----");
+    assert(t12.floorEntry(11).get().getKey() == 10 && t12.floorEntry(10).get().getKey() == 10);
+    assert(t12.ceilingEntry(11).get().getKey() == 12 && t12.ceilingEntry(10).get().getKey() == 10);
+    assert(t12.lowerEntry(10).get().getKey() == 8 && t12.higherEntry(10).get().getKey() == 12);
+    assert(!t12.floorEntry(-1).isPresent() && !t12.lowerEntry(0).isPresent());
+    assert(!t12.ceilingEntry(1999).isPresent() && !t12.higherEntry(1998).isPresent());
+    assert(t12.floorEntry(5000).get().getKey() == 1998 && t12.ceilingEntry(-5).get().getKey() == 0);
+    assert(!t1.floorEntry(3).isPresent());
+    System.out.println("Test 15 Passed");
+
+    System.out.println("-----Testing union, intersection and difference-----");
+    for(Bst<Integer,String> start : java.util.Arrays.asList(Empty.<Integer,String>empty(), AvlEmpty.<Integer,String>empty())) {
+      Bst<Integer,String> a = start, b = start;
+      java.util.TreeMap<Integer,String> ma = new java.util.TreeMap<>(), mb = new java.util.TreeMap<>();
+      for(int i = 0; i < 20000; i++) {
+        int k = random.nextInt(30000);
+        a = a.put(k, "a" + k);
+        ma.put(k, "a" + k);
+        k = random.nextInt(30000);
+        b = b.put(k, "b" + k);
+        mb.put(k, "b" + k);
+      }
+      BstTable<Integer,String> ta = new BstTable<>(a), tb = new BstTable<>(b);
+      java.util.TreeMap<Integer,String> expected = new java.util.TreeMap<>(mb);
+      for(java.util.Map.Entry<Integer,String> e : ma.entrySet()) expected.merge(e.getKey(), e.getValue(), (x, y) -> y + x);
+      BstTable<Integer,String> union = ta.union(tb, (x, y) -> x + y);
+      assert(new java.util.ArrayList<>(union.keys()).equals(new java.util.ArrayList<>(expected.keySet())));
+      assert(new java.util.ArrayList<>(union.values()).equals(new java.util.ArrayList<>(expected.values())));
+      java.util.TreeMap<Integer,String> both = new java.util.TreeMap<>(ma);
+      both.keySet().retainAll(mb.keySet());
+      assert(new java.util.ArrayList<>(ta.intersection(tb, (x, y) -> x).keys()).equals(new java.util.ArrayList<>(both.keySet())));
+      java.util.TreeMap<Integer,String> only = new java.util.TreeMap<>(ma);
+      only.keySet().removeAll(mb.keySet());
+      assert(new java.util.ArrayList<>(ta.difference(tb).keys()).equals(new java.util.ArrayList<>(only.keySet())));
+      assert(ta.difference(ta).isEmpty() && ta.union(new BstTable<>(start), (x, y) -> x).size() == ta.size());
+      if(start instanceof AvlEmpty) assert(BstSetOperations.union(a, b, (x, y) -> x).height() <= 2 * log2floor(union.size()));
+    }
+    Bst<Integer,String> shared = t10.put(5, "five");
+    Bst<Integer,String> merged = BstSetOperations.union(t10, Empty.<Integer,String>empty().put(5, "five"), (x, y) -> y);
+    assert(merged.size() == shared.size() && merged.find(5).get().equals("five"));
+    Bst<Integer,String> self = AvlEmpty.empty();
+    for(int i = 0; i < 100; i++) self = self.put(i, "v" + i);
+    Bst<Integer,String> doubled = BstSetOperations.union(self, self, (x, y) -> x + y);
+    Bst<Integer,String> doubledBut100 = BstSetOperations.union(self, self.put(100, "z"), (x, y) -> x + y);
+    for(int i = 0; i < 100; i++) assert(doubled.find(i).get().equals("v" + i + "v" + i) && doubledBut100.find(i).get().equals("v" + i + "v" + i));
+    assert(doubledBut100.find(100).get().equals("z") && BstSetOperations.union(self, self, (x, y) -> x) == self);
+    System.out.println("Test 16 Passed");
+
+    System.out.println("-----Testing IntBstTable and LongBstTable-----");
+    IntBstTable<String> t18 = new IntBstTable<>();
+    LongBstTable<String> t19 = new LongBstTable<>();
+    for(int i = 0; i < 1000; i++) {
+      int k = random.nextInt(2000);
+      t18 = t18.put(k, "v" + k);
+      t19 = t19.put(k * 10000000000L, "v" + k);
+    }
+    java.util.TreeSet<Integer> intKeys = new java.util.TreeSet<>(t18.keys());
+    assert(intKeys.size() == t18.size() && t18.size() == t19.size());
+    assert(new java.util.ArrayList<>(intKeys).equals(new java.util.ArrayList<>(t18.keys())));
+    int someKey = intKeys.first();
+    assert(t18.containsKey(someKey) && t18.get(someKey).get().equals("v" + someKey));
+    assert(t19.getOrDefault(someKey * 10000000000L, null).equals("v" + someKey));
+    assert(t18.getOrDefault(-1, "none").equals("none") && !t19.containsKey(1L));
+    IntBstTable<String> t20 = t18.remove(someKey).get();
+    assert(t20.size() == t18.size() - 1 && !t20.containsKey(someKey) && !t20.remove(someKey).isPresent());
+    Table<Integer,String> t21 = t18.put(Integer.valueOf(-5), "minus five");
+    assert(t21.get(-5).get().equals("minus five") && t21.keys().iterator().next() == -5);
+    java.util.Iterator<String> intValues = t18.values().iterator();
+    for(int k : t18.keys()) assert(intValues.next().equals("v" + k));
+    assert(!intValues.hasNext() && t18.values().size() == t18.size());
+    assert(t18.keys().contains(someKey) && !t18.keys().contains(-1) && !t18.keys().contains("a"));
+    assert(t19.keys().contains(someKey * 10000000000L) && !t19.keys().contains(someKey));
+    java.util.Iterator<Long> longKeys = t19.keys().iterator();
+    for(int k : intKeys) assert(longKeys.next() == k * 10000000000L);
+    assert(!longKeys.hasNext() && !new IntBstTable<String>().keys().iterator().hasNext());
+    IntBst<String> t22 = IntEmpty.<String>empty().put(1, "a").put(2, "b").put(3, "c").put(4, "d").put(5, "e");
+    assert(t22.height() == 4 && t22.balanced().height() == 2 && t22.balanced().size() == 5);
+    assert(t22.smallestKey().getAsInt() == 1 && t22.largestKey().getAsInt() == 5);
+    System.out.println("Test 17 Passed");
+
+    System.out.println("-----Testing FrozenTable-----");
+    for(int n = 0; n < 40; n++) {
+      BstTable<Integer,String> source = t12.headTable(2 * n, false);
+      FrozenTable<Integer,String> frozen = source.freeze();
+      assert(frozen.size() == n);
+      assert(new java.util.ArrayList<>(frozen.keys()).equals(new java.util.ArrayList<>(source.keys())));
+      for(int k = -1; k <= 2 * n; k++) assert(frozen.containsKey(k) == source.containsKey(k) && frozen.get(k).equals(source.get(k)));
+      assert(frozen.toBst().size() == n && frozen.toBst().height() == ((n == 0) ? -1 : log2floor(n) - 1));
+    }
+    FrozenTable<Integer,String> t23 = t15.freeze();
+    assert(new java.util.ArrayList<>(t23.values()).equals(new java.util.ArrayList<>(t15.values())));
+    assert(t23.put(-7, "new").get(-7).get().equals("new") && t23.put(-7, "new").size() == 1501);
+    assert(t23.remove(1).get().size() == 1499 && !t23.remove(0).isPresent());
+    System.out.println("Test 18 Passed");
+
+    System.out.println("-----Testing MappedTable-----");
+    java.nio.file.Path snapshots = java.nio.file.Files.createTempDirectory("snapshots");
+    java.nio.file.Path t24File = snapshots.resolve("t24");
+    MappedTable.write(t12, t24File, Codec.INT, Codec.STRING);
+    MappedTable<Integer,String> t24 = MappedTable.open(t24File, Codec.INT, Codec.STRING);
+    assert(t24.size() == 1000 && !t24.isEmpty());
+    for(int k = -1; k <= 2000; k++) assert(t24.containsKey(k) == t12.containsKey(k) && t24.get(k).equals(t12.get(k)));
+    assert(new java.util.ArrayList<>(t24.keys()).equals(new java.util.ArrayList<>(t12.keys())));
+    assert(new java.util.ArrayList<>(t24.values()).equals(new java.util.ArrayList<>(t12.values())));
+    java.util.Iterator<Entry<Integer,String>> t24Scan = t24.scan(100, false, 110, true);
+    for(int k = 102; k <= 110; k += 2) assert(t24Scan.hasNext() && t24Scan.next().getKey() == k);
+    assert(!t24Scan.hasNext() && !t24.scan(2000, true, null, true).hasNext());
+    assert(t24.toTable().size() == 1000 && t24.put(1, "v1").get(1).get().equals("v1"));
+    assert(t24.remove(2).get().size() == 999 && !t24.remove(3).isPresent());
+    MappedTable.write(new BstTable<Long,Long>(), t24File, Codec.LONG, Codec.LONG);
+    MappedTable<Long,Long> t25 = MappedTable.open(t24File, Codec.LONG, Codec.LONG);
+    assert(t25.isEmpty() && !t25.get(0L).isPresent() && !t25.iterator().hasNext());
+    java.nio.file.Files.write(t24File, new byte[100]);
+    try {
+      MappedTable.open(t24File, Codec.LONG, Codec.LONG);
+      assert(false);
+    }
+    catch(java.io.IOException e) {}
+    java.nio.file.Files.delete(t24File);
+    System.out.println("Test 19 Passed");
+
+    System.out.println("-----Testing AppendOnlyStore-----");
+    java.nio.file.Path t26File = snapshots.resolve("t26");
+    AppendOnlyStore<Integer,String> t26 = AppendOnlyStore.open(t26File, Codec.INT, Codec.STRING);
+    AppendOnlyTable<Integer,String> t27 = t26.table();
+    assert(t27.isEmpty());
+    for(int i = 0; i < 1000; i++) t27 = t27.put(i, "v" + i);
+    long t26Size = t26.fileSize();
+    AppendOnlyTable<Integer,String> t28 = t27.put(500, "new");
+    assert(t26.fileSize() - t26Size < 40 * 12); // One path of an AVL tree of 1000 nodes.
+    assert(t28.get(500).get().equals("new") && t27.get(500).get().equals("v500") && t28.size() == 1000);
+    t28 = (AppendOnlyTable<Integer,String>) t28.remove(0).get();
+    assert(!t28.containsKey(0) && t28.size() == 999 && !t28.remove(0).isPresent());
+    t26.close();
+    t26 = AppendOnlyStore.open(t26File, Codec.INT, Codec.STRING);
+    t27 = t26.table();
+    assert(t27.size() == 999 && t27.get(500).get().equals("new") && t27.get(999).get().equals("v999") && !t27.get(0).isPresent());
+    assert(new java.util.ArrayList<>(t27.keys()).equals(new java.util.ArrayList<>(t27.toTable().keys())));
+    t26Size = t26.fileSize();
+    t26.compact();
+    assert(t26.fileSize() < t26Size / 2 && t26.table().size() == 999 && t26.table().get(1).get().equals("v1"));
+    try {
+      t27.put(-1, "stale");
+      assert(false);
+    }
+    catch(IllegalStateException e) {}
+    t26.close();
+    t26 = AppendOnlyStore.open(t26File, Codec.INT, Codec.STRING);
+    assert(new java.util.ArrayList<>(t26.table().values()).equals(new java.util.ArrayList<>(t27.values())));
+    t26.close();
+    java.nio.file.Files.delete(t26File);
+    System.out.println("Test 20 Passed");
+
+    System.out.println("-----Testing DurableTable-----");
+    java.nio.file.Path t29Directory = snapshots.resolve("t29");
+    DurableTable<Integer,String> t29 = DurableTable.open(t29Directory, Codec.INT, Codec.STRING);
+    for(int i = 0; i < 100; i++) t29.put(i, "v" + i);
+    t29.commit(new DurableTable.Batch<Integer,String>().put(1000, "a").put(1001, "b").remove(0));
+    t29.remove(1);
+    assert(t29.size() == 100 && !t29.containsKey(0) && t29.get(1001).get().equals("b"));
+    t29.close();
+    t29 = DurableTable.open(t29Directory, Codec.INT, Codec.STRING);
+    assert(t29.size() == 100 && !t29.containsKey(1) && t29.get(99).get().equals("v99"));
+    t29.checkpoint();
+    t29.put(2000, "after");
+    t29.close();
+    try(java.nio.channels.FileChannel t29Log = java.nio.channels.FileChannel.open(t29Directory.resolve("log.1"), java.nio.file.StandardOpenOption.APPEND)) {
+      t29Log.write(java.nio.ByteBuffer.wrap(new byte[] {0, 0, 0, 50, 1, 2, 3})); // A torn record.
+    }
+    t29 = DurableTable.open(t29Directory, Codec.INT, Codec.STRING, DurableTable.SyncPolicy.ALWAYS, 4096);
+    assert(t29.size() == 101 && t29.get(2000).get().equals("after") && t29.get(1000).get().equals("a"));
+    final DurableTable<Integer,String> t30 = t29;
+    Thread[] writers = new Thread[4];
+    for(int w = 0; w < writers.length; w++) {
+      final int first = 10000 * (w + 1);
+      writers[w] = new Thread(() -> { for(int i = first; i < first + 200; i++) t30.put(i, "w" + i); });
+      writers[w].start();
+    }
+    for(Thread writer : writers) writer.join();
+    assert(t29.size() == 901);
+    t29.close();
+    t29 = DurableTable.open(t29Directory, Codec.INT, Codec.STRING);
+    assert(t29.size() == 901 && t29.get(40199).get().equals("w40199"));
+    assert(t29.table().getTree().height() <= 2 * log2floor(901));
+    assert(new java.util.ArrayList<>(t29.table().keys()).equals(new java.util.ArrayList<>(t30.table().keys())));
+    t29.close();
+    java.nio.file.Path t29CrashDirectory = snapshots.resolve("t29crash");
+    DurableTable<Integer,String> t29Crash = DurableTable.open(t29CrashDirectory, Codec.INT, Codec.STRING);
+    for(int i = 0; i < 100; i++) t29Crash.put(i, "v" + i);
+    t29Crash.close();
+    java.nio.file.Files.createFile(t29CrashDirectory.resolve("log.1")); // A checkpoint which crashed before writing snapshot.1.
+    for(int round = 0; round < 2; round++) {
+      t29Crash = DurableTable.open(t29CrashDirectory, Codec.INT, Codec.STRING);
+      assert(t29Crash.size() == 100 && t29Crash.get(99).get().equals("v99"));
+      t29Crash.close();
+    }
+    t29Crash = DurableTable.open(t29CrashDirectory, Codec.INT, Codec.STRING);
+    t29Crash.checkpoint();
+    t29Crash.close();
+    t29Crash = DurableTable.open(t29CrashDirectory, Codec.INT, Codec.STRING);
+    assert(t29Crash.size() == 100 && !java.nio.file.Files.exists(t29CrashDirectory.resolve("log.0")));
+    t29Crash.close();
+    for(java.nio.file.Path directory : new java.nio.file.Path[] {t29Directory, t29CrashDirectory}) {
+      try(java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(directory)) {
+        for(java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) java.nio.file.Files.delete(file);
+      }
+      java.nio.file.Files.delete(directory);
+    }
+    java.nio.file.Files.delete(snapshots);
+    System.out.println("Test 21 Passed");
+
+    System.out.println("-----Testing ConcurrentBstTable-----");
+    for(ConcurrentBstTable.Mode mode : ConcurrentBstTable.Mode.values()) {
+      ConcurrentBstTable<Integer,String> t31 = new ConcurrentBstTable<Integer,String>(AvlEmpty.<Integer,String>empty(), mode);
+      Thread[] t31Writers = new Thread[4];
+      for(int w = 0; w < t31Writers.length; w++) {
+        final int first = w;
+        t31Writers[w] = new Thread(() -> {
+          for(int i = first; i < 2000; i += 4) t31.put(i, "v" + i);
+          for(int i = first; i < 2000; i += 8) t31.remove(i);
+        });
+        t31Writers[w].start();
+      }
+      BstTable<Integer,String> t32 = t31.snapshot();
+      for(Thread writer : t31Writers) writer.join();
+      assert(t31.size() == 1000 && t32.size() <= 2000);
+      for(int i = 0; i < 2000; i++) assert(t31.containsKey(i) == (i % 8 >= 4) && t31.get(i).equals(t31.containsKey(i) ? java.util.Optional.of("v" + i) : java.util.Optional.empty()));
+      assert(t31.snapshot().getTree().height() <= 2 * log2floor(1000));
+      t31.update(tree -> tree.put(-1, "updated"));
+      assert(t31.get(-1).get().equals("updated") && t31.size() == 1001);
+      boolean nullRejected = false;
+      try {
+        t31.put(null, "null");
+      }
+      catch(NullPointerException e) {
+        nullRejected = true;
+      }
+      assert(nullRejected && t31.size() == 1001);
+    }
+    ConcurrentBstTable<PoisonKey,String> t31Poisoned = new ConcurrentBstTable<PoisonKey,String>(AvlEmpty.<PoisonKey,String>empty(), ConcurrentBstTable.Mode.COMBINING);
+    t31Poisoned.put(new PoisonKey(-1, false), "first");
+    java.util.concurrent.atomic.AtomicInteger t31Failures = new java.util.concurrent.atomic.AtomicInteger();
+    Thread[] t31Mixed = new Thread[8];
+    for(int w = 0; w < t31Mixed.length; w++) {
+      final int first = w;
+      t31Mixed[w] = new Thread(() -> {
+        for(int i = first; i < 20000; i += t31Mixed.length) {
+          try {
+            t31Poisoned.put(new PoisonKey(i, first == 0 && i % 400 == 0), "v" + i);
+          }
+          catch(IllegalStateException e) {
+            t31Failures.incrementAndGet();
+          }
+        }
+      });
+      t31Mixed[w].setDaemon(true);
+      t31Mixed[w].start();
+    }
+    for(Thread writer : t31Mixed) writer.join(60000);
+    for(Thread writer : t31Mixed) assert(!writer.isAlive());
+    assert(t31Failures.get() == 50 && t31Poisoned.size() == 1 + 20000 - 50);
+    System.out.println("Test 22 Passed");
+
+    System.out.println("-----Testing ShardedTable-----");
+    java.util.List<ShardedTable<Integer,String>> t33 = java.util.Arrays.asList(
+      ShardedTable.<Integer,String>byRange(java.util.Arrays.asList(100, 200, 300), ConcurrentBstTable.Mode.CAS),
+      ShardedTable.<Integer,String>byHash(5, ConcurrentBstTable.Mode.COMBINING));
+    for(ShardedTable<Integer,String> t34 : t33) {
+      Thread[] t34Writers = new Thread[4];
+      for(int w = 0; w < t34Writers.length; w++) {
+        final int first = w;
+        t34Writers[w] = new Thread(() -> { for(int i = 399 - first; i >= 0; i -= 4) t34.put(i, "v" + i); });
+        t34Writers[w].start();
+      }
+      for(Thread writer : t34Writers) writer.join();
+      t34.remove(250);
+      assert(t34.size() == 399 && !t34.containsKey(250) && t34.get(399).get().equals("v399") && t34.keys().contains(300));
+      java.util.List<Integer> t34Keys = new java.util.ArrayList<>(t34.keys());
+      for(int i = 0; i < t34Keys.size(); i++) assert(t34Keys.get(i) == ((i < 250) ? i : i + 1));
+      java.util.Iterator<Entry<Integer,String>> t34Scan = t34.scan(150, true, 300, false);
+      for(int k = 150; k < 300; k++) if(k != 250) assert(t34Scan.next().getKey() == k);
+      assert(!t34Scan.hasNext() && !t34.scan(1000, true, null, true).hasNext());
+      assert(new java.util.ArrayList<>(t34.values()).get(10).equals("v10"));
+    }
+    System.out.println("Test 23 Passed");
+
+    System.out.println("-----Testing VersionedTable-----");
+    VersionedTable<Integer,String> t35 = new VersionedTable<Integer,String>(AvlEmpty.<Integer,String>empty(), VersionedTable.Retention.last(5));
+    for(int i = 0; i < 10; i++) assert(t35.put(i, "v" + i) == i + 1);
+    VersionedTable.Pin t35Pin = t35.pin(6);
+    assert(t35.remove(3) == 11 && t35.put(4, "new") == 12);
+    assert(t35.latestVersion() == 12 && t35.oldestVersion() == 6 && t35.versions() == 6);
+    assert(t35.getAt(6, 5).get().equals("v5") && !t35.getAt(6, 6).isPresent() && t35.getAt(10, 3).isPresent() && !t35.get(3).isPresent());
+    assert(t35.getAt(11, 4).get().equals("v4") && t35.getAt(12, 4).get().equals("new") && t35.at(8).size() == 8);
+    java.util.Iterator<Entry<Integer,String>> t35Scan = t35.scanAt(10, 2, false, 5, true);
+    for(int k = 3; k <= 5; k++) assert(t35Scan.next().getKey() == k);
+    assert(!t35Scan.hasNext());
+    t35Pin.close();
+    t35Pin.close();
+    t35.put(100, "v100");
+    assert(t35.oldestVersion() == 9 && t35.versions() == 5);
+    try {
+      t35.getAt(6, 5);
+      assert(false);
+    }
+    catch(java.util.NoSuchElementException e) {}
+    try {
+      t35.at(14);
+      assert(false);
+    }
+    catch(IllegalArgumentException e) {}
+    System.out.println("Test 24 Passed");
+
+    System.out.println("-----Testing BstDiff-----");
+    Bst<Integer,String> t36 = AvlEmpty.empty();
+    for(int i = 0; i < 1000; i++) t36 = t36.put(random.nextInt(5000), "v" + i);
+    Bst<Integer,String> t37 = t36.put(-5, "added").put(t36.largest().get().getKey(), "changed").delete(t36.smallest().get().getKey()).get();
+    t37 = t37.put(t36.select(500).get().getKey(), t36.select(500).get().getValue()); // Same value, so not a change.
+    java.util.List<BstDiff.Change<Integer,String>> t38 = BstDiff.diff(t36, t37);
+    assert(t38.size() == 3 && BstDiff.diff(t36, t36).isEmpty());
+    assert(t38.get(0).getKind() == BstDiff.Kind.ADDED && t38.get(0).getKey() == -5 && !t38.get(0).getBefore().isPresent());
+    assert(t38.get(1).getKind() == BstDiff.Kind.REMOVED && t38.get(1).getKey().equals(t36.smallest().get().getKey()));
+    assert(t38.get(2).getKind() == BstDiff.Kind.CHANGED && t38.get(2).getAfter().get().getValue().equals("changed"));
+    java.util.List<BstDiff.Change<Integer,String>> t39 = BstDiff.diff(t37, t36.balanced());
+    assert(t39.size() == 3 && t39.get(0).getKind() == BstDiff.Kind.REMOVED && t39.get(1).getKind() == BstDiff.Kind.ADDED);
+    java.util.List<Integer> t40 = new java.util.ArrayList<>();
+    new BstTable<Integer,String>().diff(t12, c -> t40.add(c.getKey()));
+    assert(t40.equals(new java.util.ArrayList<>(t12.keys())));
+    System.out.println("Test 25 Passed");
+
+    System.out.println("-----Testing content hashes and BstSync-----");
+    Bst<Integer,String> t41 = t36.put(-5, "added").put(t36.largest().get().getKey(), "changed").delete(t36.select(300).get().getKey()).get();
+    Bst<Integer,String> t42 = t41.balanced();
+    assert(t41.contentHash() == t42.contentHash() && t36.contentHash() != t41.contentHash() && new Empty<Integer,String>().contentHash() == 0);
+    assert(new BstTable<Integer,String>(t41).equals(new BstTable<Integer,String>(t42)) && !new BstTable<Integer,String>(t36).equals(new BstTable<Integer,String>(t41)));
+    assert(new BstTable<Integer,String>(t41).hashCode() == new BstTable<Integer,String>(t42).hashCode());
+    int t41Middle = t41.select(400).get().getKey();
+    assert(t41.prefixHash(t41Middle) == t42.prefixHash(t41Middle) && t41.prefixHash(t41.largest().get().getKey() + 1) == t41.contentHash());
+    try(java.net.ServerSocket t43 = new java.net.ServerSocket(0, 1, java.net.InetAddress.getLoopbackAddress())) {
+      Thread t44 = new Thread(() -> {
+        for(int i = 0; i < 2; i++) {
+          try(java.net.Socket s = t43.accept()) {
+            BstSync.serve(s, t41, Codec.INT, Codec.STRING);
+          }
+          catch(java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+          }
+        }
+      });
+      t44.start();
+      try(java.net.Socket s = new java.net.Socket(t43.getInetAddress(), t43.getLocalPort())) {
+        BstSync.Result<Integer,String> t45 = BstSync.pull(s, t36, Codec.INT, Codec.STRING);
+        assert(new BstTable<Integer,String>(t45.getTree()).equals(new BstTable<Integer,String>(t41)));
+        assert(t45.getEntriesReceived() <= 3 * 16 && t45.getRoundTrips() < 100);
+      }
+      try(java.net.Socket s = new java.net.Socket(t43.getInetAddress(), t43.getLocalPort())) {
+        BstSync.Result<Integer,String> t45 = BstSync.pull(s, AvlEmpty.<Integer,String>empty(), Codec.INT, Codec.STRING);
+        assert(new BstTable<Integer,String>(t45.getTree()).equals(new BstTable<Integer,String>(t41)) && t45.getRoundTrips() == 1);
+      }
+      t44.join();
+    }
+    System.out.println("Test 26 Passed");
+
+    System.out.println("-----Testing BstMetrics (" + (BstMetrics.ENABLED ? "on" : "off, run with -Dbst.metrics=true to test them on") + ")-----");
+    BstMetrics.reset();
+    java.util.List<BstMetrics.Snapshot> t46 = new java.util.ArrayList<>();
+    BstMetrics.Sink t47 = t46::add;
+    BstMetrics.addSink(t47);
+    BstTable<Integer,String> t48 = new BstTable<Integer,String>(t8);
+    for(int i = 0; i < 100; i++) assert(t48.get(2 * i + 1).isPresent() && !t48.containsKey(2 * i));
+    BstTable<Integer,String> t49 = (BstTable<Integer,String>) t48.put(-1, "new");
+    assert(t49.remove(-1).isPresent() && !t49.remove(-2).isPresent());
+    BstMetrics.Snapshot t50 = BstMetrics.publish();
+    BstMetrics.removeSink(t47);
+    BstMetrics.publish();
+    assert(t46.size() == 1 && t46.get(0) == t50);
+    if(BstMetrics.ENABLED) {
+      assert(t50.getCount(BstMetrics.Operation.GET) == 100 && t50.getCount(BstMetrics.Operation.CONTAINS) == 100);
+      assert(t50.getCount(BstMetrics.Operation.PUT) == 1 && t50.getCount(BstMetrics.Operation.REMOVE) == 2);
+      assert(t50.getMeanNodesVisited(BstMetrics.Operation.GET) <= t8.height() + 1 && t50.getMeanNodesVisited(BstMetrics.Operation.GET) >= 1);
+      assert(t50.getMeanComparisons(BstMetrics.Operation.CONTAINS) == t50.getMeanNodesVisited(BstMetrics.Operation.CONTAINS));
+      assert(t50.getMeanNodesAllocated(BstMetrics.Operation.PUT) >= 1 && t50.getMeanNodesAllocated(BstMetrics.Operation.GET) == 0);
+      assert(t50.getLatencyNanos(BstMetrics.Operation.GET, 0.5) > 0 && t50.getLatencyNanos(BstMetrics.Operation.GET, 0.5) <= t50.getLatencyNanos(BstMetrics.Operation.GET, 0.99));
+      assert(t50.getNodesVisited() >= 200 && t50.getComparisons() >= t50.getNodesVisited());
+    }
+    else {
+      assert(t50.getCount(BstMetrics.Operation.GET) == 0 && t50.getNodesVisited() == 0 && t50.getNodesAllocated() == 0);
+    }
+    try {
+      javax.management.ObjectName t51 = BstMetrics.registerMBean();
+      assert(BstMetrics.registerMBean().equals(t51));
+      javax.management.MBeanServer t52 = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+      assert(t52.getAttribute(t51, "Enabled").equals(BstMetrics.ENABLED));
+      assert(t52.getAttribute(t51, "NodesVisited").equals(t50.getNodesVisited()));
+      assert(t52.getAttribute(t51, "LatencyMedianNanos") instanceof javax.management.openmbean.TabularData);
+      t52.invoke(t51, "reset", null, null);
+      assert(BstMetrics.snapshot().getCount(BstMetrics.Operation.GET) == 0);
+    }
+    catch(javax.management.JMException e) {
+      throw new AssertionError(e);
+    }
+    System.out.println("Test 27 Passed");
+
     System.out.println("");
     System.out.println("All Bst Tests passed");
     System.out.println("");
@@ -74,6 +634,37 @@ public class BstTests {
     System.out.println("Test 2 Passed");
   }
 
+  /*
+   * Is every node of t an AvlFork (or AvlEmpty), with branches whose heights
+   * differ by at most one?
+   */
+  /*
+   * A key whose compareTo() throws if either key is poisoned.
+   */
+  private static final class PoisonKey implements Comparable<PoisonKey> {
+    final int value;
+    final boolean poisoned;
+
+    PoisonKey(int value, boolean poisoned) {
+      this.value = value;
+      this.poisoned = poisoned;
+    }
+
+    @Override
+    public int compareTo(PoisonKey other) {
+      if(this.poisoned || other.poisoned) throw new IllegalStateException("poisoned key " + this.value);
+      return Integer.compare(this.value, other.value);
+    }
+  }
+
+  private static boolean isAvl(Bst<?,?> t) {
+    if(t instanceof AvlEmpty) return true;
+    if(!(t instanceof AvlFork)) return false;
+    Bst<?,?> left = t.getLeft().get();
+    Bst<?,?> right = t.getRight().get();
+    return Math.abs(left.height() - right.height()) <= 1 && isAvl(left) && isAvl(right);
+  }
+
   private static int log2floor(int x) {
     assert(x > 0);
     int y = 0; 
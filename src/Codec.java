@@ -0,0 +1,87 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns keys or values in to bytes and back, for the on-disk snapshots
+ * written by MappedTable.
+ *
+ * write() appends the encoding of a value to a stream, and read() decodes
+ * one value starting at the current position of a buffer, leaving the
+ * position just after it. An encoding must say how long it is (fixed
+ * width, or a length prefix), because entries are stored back to back.
+ *
+ * Codecs for int, long and String are provided. Any other type needs its
+ * own Codec; the keys of a snapshot are only ever compared after being
+ * decoded, so the encoding doesn't have to preserve their order.
+ */
+public interface Codec<T> {
+
+	/**
+	 * Writes the encoding of value to out.
+	 *
+	 * @param value The value to encode.
+	 * @param out Where to write the encoding.
+	 * @throws IOException If out can't be written to.
+	 */
+	void write(T value, DataOutput out) throws IOException;
+
+	/**
+	 * Decodes a value from in, starting at its position, and moves the
+	 * position to just after the encoding.
+	 *
+	 * @param in The bytes to decode.
+	 * @return The decoded value.
+	 */
+	T read(ByteBuffer in);
+
+	/**
+	 * Integers, as 4 big-endian bytes.
+	 */
+	Codec<Integer> INT = new Codec<Integer>() {
+		@Override
+		public void write(Integer value, DataOutput out) throws IOException {
+			out.writeInt(value);
+		}
+
+		@Override
+		public Integer read(ByteBuffer in) {
+			return in.getInt();
+		}
+	};
+
+	/**
+	 * Longs, as 8 big-endian bytes.
+	 */
+	Codec<Long> LONG = new Codec<Long>() {
+		@Override
+		public void write(Long value, DataOutput out) throws IOException {
+			out.writeLong(value);
+		}
+
+		@Override
+		public Long read(ByteBuffer in) {
+			return in.getLong();
+		}
+	};
+
+	/**
+	 * Strings, as the number of bytes (4 bytes) followed by the UTF-8 bytes.
+	 */
+	Codec<String> STRING = new Codec<String>() {
+		@Override
+		public void write(String value, DataOutput out) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public String read(ByteBuffer in) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	};
+}
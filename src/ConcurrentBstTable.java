@@ -0,0 +1,320 @@
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * A mutable handle on an immutable tree, which any number of threads can
+ * read and update at the same time without locks.
+ *
+ * The handle is just an atomic reference to the current root. A read
+ * takes the root and works on that version of the tree, which no one can
+ * change under it. An update builds a new version from the current one
+ * and installs it with compare-and-set; if another thread got there
+ * first, it backs off for a random, growing, number of spins and tries
+ * again with the newer root.
+ *
+ * When many threads write at once, most of those attempts fail and their
+ * path-copies are thrown away. Mode.COMBINING avoids this with flat
+ * combining : a writer queues its change, and whichever writer gets the
+ * combiner flag takes every change in the queue, folds them together
+ * (the last change to a key wins), and applies them all at once with
+ * BstSetOperations, which copies the paths to the changed keys once for
+ * the whole batch, and then installs the result. The other writers just
+ * wait for their change to be marked done.
+ *
+ * The tree starts out as an AVL tree (AvlEmpty), so it stays balanced
+ * however keys are inserted.
+ */
+public class ConcurrentBstTable<K extends Comparable<K>,V> {
+
+	/**
+	 * How put() and remove() install their changes.
+	 */
+	public enum Mode {
+		/**
+		 * Each writer retries compare-and-set until its own change goes in.
+		 */
+		CAS,
+
+		/**
+		 * Writers queue their changes, and one of them applies the whole queue.
+		 */
+		COMBINING
+	}
+
+	/*
+	 * Backoff spins for a random number of turns, up to 2^attempt, and
+	 * yields the processor after this many attempts in a row.
+	 */
+	private static final int MAX_SPIN_SHIFT = 10;
+	private static final int YIELD_AFTER = 6;
+
+	private final AtomicReference<Bst<K,V>> root;
+	private final Mode mode;
+	private final ConcurrentLinkedQueue<Change<K,V>> queue = new ConcurrentLinkedQueue<Change<K,V>>();
+	private final AtomicBoolean combining = new AtomicBoolean();
+
+	/**
+	 * Creates an empty table, which uses compare-and-set.
+	 */
+	public ConcurrentBstTable() {
+		this(AvlEmpty.<K,V>empty(), Mode.CAS);
+	}
+
+	/**
+	 * Creates a table which starts out with the entries of tree.
+	 *
+	 * @param tree The tree to start from.
+	 * @param mode How changes are installed.
+	 */
+	public ConcurrentBstTable(Bst<K,V> tree, Mode mode) {
+		this.root = new AtomicReference<Bst<K,V>>(tree);
+		this.mode = mode;
+	}
+
+	/**
+	 * Returns the table as it is now. It is immutable, so later changes
+	 * don't affect it.
+	 *
+	 * @return The current table.
+	 */
+	public BstTable<K,V> snapshot() {
+		return new BstTable<K,V>(this.root.get());
+	}
+
+	/**
+	 * Returns the value of k, if it is in the table.
+	 *
+	 * @param k The key to look up.
+	 * @return The value of k, or Optional.empty().
+	 */
+	public Optional<V> get(K k) {
+		return this.root.get().find(k);
+	}
+
+	/**
+	 * Returns whether k is in the table.
+	 *
+	 * @param k The key to look up.
+	 * @return Whether k is in the table.
+	 */
+	public boolean containsKey(K k) {
+		return this.root.get().has(k);
+	}
+
+	/**
+	 * Returns the number of entries in the table.
+	 *
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return this.root.get().size();
+	}
+
+	/**
+	 * Inserts k:v, or replaces the value of k.
+	 *
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 * @throws NullPointerException If k is null.
+	 */
+	public void put(K k, V v) {
+		Objects.requireNonNull(k, "key");
+		if(this.mode == Mode.COMBINING) {
+			combine(new Change<K,V>(k, v, false));
+		}
+		else {
+			update(tree -> tree.put(k, v));
+		}
+	}
+
+	/**
+	 * Removes k, if it is in the table.
+	 *
+	 * @param k The key to remove.
+	 * @throws NullPointerException If k is null.
+	 */
+	public void remove(K k) {
+		Objects.requireNonNull(k, "key");
+		if(this.mode == Mode.COMBINING) {
+			combine(new Change<K,V>(k, null, true));
+		}
+		else {
+			update(tree -> remove(tree, k));
+		}
+	}
+
+	private static <K extends Comparable<K>,V> Bst<K,V> remove(Bst<K,V> tree, K k) {
+		return tree.has(k) ? tree.delete(k).get() : tree;
+	}
+
+	/**
+	 * Replaces the tree with change(tree), atomically, retrying with the new
+	 * tree if another thread changes it first. change may therefore be
+	 * called more than once, and should have no side effects.
+	 *
+	 * @param change Works out the new tree from the current one.
+	 * @return The tree that was installed.
+	 */
+	public Bst<K,V> update(UnaryOperator<Bst<K,V>> change) {
+		for(int attempt = 0; ; attempt++) {
+			Bst<K,V> current = this.root.get();
+			Bst<K,V> updated = change.apply(current);
+			if(updated == current || this.root.compareAndSet(current, updated)) {
+				return updated;
+			}
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * Queues change, and then either waits for another thread to apply it,
+	 * or takes the combiner flag and applies the whole queue itself. If
+	 * applying change failed, whichever thread did it, the exception is
+	 * rethrown here, in the thread that made the change.
+	 */
+	private void combine(Change<K,V> change) {
+		this.queue.add(change);
+		for(int attempt = 0; !change.done; attempt++) {
+			if(!this.combining.get() && this.combining.compareAndSet(false, true)) {
+				try {
+					applyQueue();
+				}
+				finally {
+					this.combining.set(false);
+				}
+			}
+			else {
+				backoff(attempt);
+			}
+		}
+		if(change.failure instanceof Error) {
+			throw (Error) change.failure;
+		}
+		else if(change.failure != null) {
+			throw (RuntimeException) change.failure;
+		}
+	}
+
+	/**
+	 * Takes every change from the queue and applies them, marking each one
+	 * done, whatever happens, so no writer is left waiting. Called by the
+	 * combiner.
+	 */
+	private void applyQueue() {
+		ArrayList<Change<K,V>> taken = new ArrayList<Change<K,V>>();
+		Change<K,V> change;
+		while((change = this.queue.poll()) != null) {
+			taken.add(change);
+		}
+		if(taken.isEmpty()) return;
+		try {
+			applyAll(taken);
+		}
+		catch(RuntimeException | Error e) {
+			/*
+			 * One of the changes failed (its key's compareTo() threw, say), so
+			 * none of them went in. Apply them one at a time instead, so that
+			 * only the changes which fail by themselves are reported as failed.
+			 */
+			for(Change<K,V> c : taken) {
+				try {
+					apply(c);
+				}
+				catch(RuntimeException | Error f) {
+					c.failure = f;
+				}
+			}
+		}
+		finally {
+			for(Change<K,V> c : taken) c.done = true;
+		}
+	}
+
+	/**
+	 * Applies a single change with a plain path-copy.
+	 */
+	private void apply(Change<K,V> c) {
+		update(tree -> c.remove ? remove(tree, c.key) : tree.put(c.key, c.value));
+	}
+
+	/**
+	 * Folds changes in to one set of entries to put and one set of keys to
+	 * remove, and installs them all with a single update.
+	 */
+	private void applyAll(ArrayList<Change<K,V>> changes) {
+		TreeMap<K,Change<K,V>> latest = new TreeMap<K,Change<K,V>>();
+		for(Change<K,V> c : changes) {
+			latest.put(c.key, c);
+		}
+		if(latest.size() == 1) {
+			/*
+			 * Nothing to merge, so a plain path-copy is cheaper.
+			 */
+			apply(latest.firstEntry().getValue());
+			return;
+		}
+
+		/*
+		 * Both sets are built straight from sorted entries, and are merged in
+		 * with difference() and union(), which split and join the tree
+		 * rather than copying a path per change.
+		 */
+		int puts = 0;
+		for(Change<K,V> c : latest.values()) if(!c.remove) puts++;
+		@SuppressWarnings("unchecked")
+		Entry<K,V>[] added = (Entry<K,V>[]) new Entry<?,?>[puts];
+		@SuppressWarnings("unchecked")
+		Entry<K,V>[] removed = (Entry<K,V>[]) new Entry<?,?>[latest.size() - puts];
+		int a = 0, r = 0;
+		for(Map.Entry<K,Change<K,V>> e : latest.entrySet()) {
+			Change<K,V> c = e.getValue();
+			if(c.remove) removed[r++] = new Entry<K,V>(c.key, null);
+			else added[a++] = new Entry<K,V>(c.key, c.value);
+		}
+		Bst<K,V> additions = AvlFork.fromSorted(added);
+		Bst<K,V> removals = AvlFork.fromSorted(removed);
+
+		update(tree -> BstSetOperations.union(BstSetOperations.difference(tree, removals), additions, (old, v) -> v));
+	}
+
+	/**
+	 * Waits a little before retrying, for longer the more attempts have
+	 * failed, so that threads which collided don't collide again.
+	 */
+	private static void backoff(int attempt) {
+		if(attempt >= YIELD_AFTER) {
+			Thread.yield();
+		}
+		int spins = ThreadLocalRandom.current().nextInt(1 << Math.min(attempt + 1, MAX_SPIN_SHIFT));
+		for(int i = 0; i < spins; i++) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * A queued put or remove, marked done by the combiner which applies it,
+	 * along with what it threw if it failed. failure is written before done,
+	 * so it is visible once done is.
+	 */
+	private static final class Change<K,V> {
+		final K key;
+		final V value;
+		final boolean remove;
+		Throwable failure;
+		volatile boolean done;
+
+		Change(K key, V value, boolean remove) {
+			this.key = key;
+			this.value = value;
+			this.remove = remove;
+		}
+	}
+}
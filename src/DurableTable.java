@@ -0,0 +1,606 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A mutable handle on a BstTable which survives crashes, by writing every
+ * change to a write-ahead log before it returns.
+ *
+ * The handle keeps the current table in memory, as an AVL tree (see
+ * AvlFork), so get() never touches the disk. put(), remove() and commit() append one record to the log;
+ * with SyncPolicy.ALWAYS they return only once the record has been
+ * flushed to disk with fsync. fsync is slow, so writers are grouped : the
+ * first writer to find no flush in progress flushes everything appended
+ * so far, for itself and for every writer queued behind it, and those
+ * writers then return without a flush of their own (group commit). A
+ * Batch of changes is a single record, so it is applied all or nothing.
+ *
+ * Once the log has grown by checkpointBytes, the writer which noticed
+ * writes the current table to a snapshot (the MappedTable format) and
+ * starts a new log, so that recovery only replays the log written since
+ * the last snapshot. Writers carry on while the snapshot is written.
+ *
+ * All of the files live in one directory :
+ *
+ *     snapshot.N : the table as it was when log.N was started.
+ *     log.N      : records, each of which is
+ *                  length of the payload (4 bytes), CRC32 of the payload (4 bytes),
+ *                  number of changes (4 bytes), then for each change,
+ *                  1 (put) and the key and value, or 2 (remove) and the key.
+ *
+ * open() loads the newest snapshot and replays the logs from then on. A
+ * record left half-written by a crash fails its length or CRC check; it
+ * and anything after it are cut off the end of the newest log, and the
+ * table is left as it was after the last complete record.
+ *
+ * Changes are visible to get() as soon as they are appended to the log,
+ * which may be a moment before they are on disk. A DurableTable is safe
+ * to use from several threads.
+ */
+public class DurableTable<K extends Comparable<K>,V> implements Closeable {
+
+	/**
+	 * When records are flushed to disk.
+	 */
+	public enum SyncPolicy {
+		/**
+		 * Every change is flushed with fsync before it returns, so it survives
+		 * a power failure. Concurrent writers share flushes.
+		 */
+		ALWAYS,
+
+		/**
+		 * Every change is written to the operating system before it returns,
+		 * so it survives the process crashing, but not the machine. Logs are
+		 * still flushed when a checkpoint starts a new one.
+		 */
+		NEVER
+	}
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+	private final Path directory;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+	private final SyncPolicy policy;
+	private final long checkpointBytes;
+
+	/*
+	 * Everything below is guarded by lock. Records are appended to pending
+	 * (and numbered by appended) in the same order as they are applied to
+	 * current. The writer which finds flushing false becomes the one to
+	 * write pending to the log, and it then moves durable up to the last
+	 * record it wrote and wakes everyone waiting on flushed.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushed = this.lock.newCondition();
+	private final AtomicBoolean checkpointing = new AtomicBoolean();
+	private volatile BstTable<K,V> current;
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long appended;
+	private long durable;
+	private boolean flushing;
+	private IOException failure;
+	private FileChannel log;
+	private long generation;
+	private volatile long logSize;
+	private boolean closed;
+
+	private DurableTable(Path directory, Codec<K> keyCodec, Codec<V> valueCodec, SyncPolicy policy, long checkpointBytes) {
+		this.directory = directory;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.policy = policy;
+		this.checkpointBytes = checkpointBytes;
+	}
+
+	/**
+	 * Opens the table in directory, with SyncPolicy.ALWAYS and a checkpoint
+	 * every 64MB of log.
+	 *
+	 * @param directory The directory holding the table, which is created if it doesn't exist.
+	 * @param keyCodec How to encode the keys.
+	 * @param valueCodec How to encode the values.
+	 * @return The recovered table.
+	 * @throws IOException If the files can't be read, or are corrupt.
+	 */
+	public static <K extends Comparable<K>,V> DurableTable<K,V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		return open(directory, keyCodec, valueCodec, SyncPolicy.ALWAYS, DEFAULT_CHECKPOINT_BYTES);
+	}
+
+	/**
+	 * Opens the table in directory, recovering it from the newest snapshot
+	 * and the logs written since.
+	 *
+	 * @param directory The directory holding the table, which is created if it doesn't exist.
+	 * @param keyCodec How to encode the keys.
+	 * @param valueCodec How to encode the values.
+	 * @param policy When changes are flushed to disk.
+	 * @param checkpointBytes How big the log can get before a checkpoint.
+	 * @return The recovered table.
+	 * @throws IOException If the files can't be read, or are corrupt.
+	 */
+	public static <K extends Comparable<K>,V> DurableTable<K,V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec, SyncPolicy policy, long checkpointBytes) throws IOException {
+		DurableTable<K,V> table = new DurableTable<K,V>(directory, keyCodec, valueCodec, policy, checkpointBytes);
+		table.recover();
+		return table;
+	}
+
+	/**
+	 * Loads the newest snapshot, replays every log from then on, and opens
+	 * the newest log for appending.
+	 */
+	private void recover() throws IOException {
+		Files.createDirectories(this.directory);
+		TreeMap<Long,Path> snapshots = files("snapshot.");
+		TreeMap<Long,Path> logs = files("log.");
+
+		/*
+		 * The table is kept as an AVL tree, so that it stays balanced whatever
+		 * order the keys are put in.
+		 */
+		long start = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+		Bst<K,V> tree = AvlEmpty.<K,V>empty();
+		if(!snapshots.isEmpty()) {
+			MappedTable<K,V> snapshot = MappedTable.open(snapshots.lastEntry().getValue(), this.keyCodec, this.valueCodec);
+			@SuppressWarnings("unchecked")
+			Entry<K,V>[] entries = (Entry<K,V>[]) new Entry<?,?>[snapshot.size()];
+			Iterator<Entry<K,V>> iterator = snapshot.iterator();
+			for(int i = 0; i < entries.length; i++) entries[i] = iterator.next();
+			tree = AvlFork.fromSorted(entries);
+		}
+
+		this.current = new BstTable<K,V>(tree);
+		this.generation = start;
+		for(java.util.Map.Entry<Long,Path> log : logs.tailMap(start, true).entrySet()) {
+			long valid = replay(log.getValue());
+			this.generation = log.getKey();
+			if(valid < Files.size(log.getValue())) {
+				if(!log.getKey().equals(logs.lastKey())) {
+					throw new IOException("Corrupt record in " + log.getValue() + " at " + valid);
+				}
+				try(FileChannel channel = FileChannel.open(log.getValue(), StandardOpenOption.WRITE)) {
+					channel.truncate(valid);
+					channel.force(true);
+				}
+			}
+		}
+
+		this.log = FileChannel.open(logFile(this.generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		this.logSize = this.log.size();
+		this.log.position(this.logSize);
+		/*
+		 * Only the files older than the snapshot just loaded are finished with.
+		 * A log newer than the snapshot may have been started by a checkpoint
+		 * which crashed before its snapshot was written, and the logs before it
+		 * are still the only copy of their changes.
+		 */
+		deleteBefore(start);
+	}
+
+	/**
+	 * Applies the complete records of a log to the current table, and
+	 * returns the number of bytes they take up.
+	 */
+	private long replay(Path file) throws IOException {
+		long valid = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			long remaining = Files.size(file);
+			while(remaining >= RECORD_HEADER_SIZE) {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				if(length < 4 || length > remaining - RECORD_HEADER_SIZE) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				if(checksum(payload) != checksum) {
+					break;
+				}
+				this.current = new BstTable<K,V>(apply(ByteBuffer.wrap(payload), this.current.getTree()));
+				valid += RECORD_HEADER_SIZE + length;
+				remaining -= RECORD_HEADER_SIZE + length;
+			}
+		}
+		catch(EOFException e) {
+			// A torn record at the end; everything before it has been applied.
+		}
+		return valid;
+	}
+
+	private Bst<K,V> apply(ByteBuffer payload, Bst<K,V> tree) {
+		int count = payload.getInt();
+		for(int i = 0; i < count; i++) {
+			byte type = payload.get();
+			K k = this.keyCodec.read(payload);
+			if(type == PUT) {
+				tree = tree.put(k, this.valueCodec.read(payload));
+			}
+			else {
+				tree = remove(tree, k);
+			}
+		}
+		return tree;
+	}
+
+	private static <K extends Comparable<K>,V> Bst<K,V> remove(Bst<K,V> tree, K k) {
+		return tree.has(k) ? tree.delete(k).get() : tree;
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * The files in the directory called prefix followed by a number, by number.
+	 */
+	private TreeMap<Long,Path> files(String prefix) throws IOException {
+		TreeMap<Long,Path> files = new TreeMap<Long,Path>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, prefix + "*")) {
+			for(Path file : stream) {
+				String suffix = file.getFileName().toString().substring(prefix.length());
+				if(suffix.matches("[0-9]+")) {
+					files.put(Long.parseLong(suffix), file);
+				}
+			}
+		}
+		return files;
+	}
+
+	private Path logFile(long generation) {
+		return this.directory.resolve("log." + generation);
+	}
+
+	private Path snapshotFile(long generation) {
+		return this.directory.resolve("snapshot." + generation);
+	}
+
+	/**
+	 * Deletes the snapshots and logs which the snapshot for generation has
+	 * replaced.
+	 */
+	private void deleteBefore(long generation) throws IOException {
+		for(Path file : files("snapshot.").headMap(generation, false).values()) Files.deleteIfExists(file);
+		for(Path file : files("log.").headMap(generation, false).values()) Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Returns the value of k, if it is in the table.
+	 *
+	 * @param k The key to look up.
+	 * @return The value of k, or Optional.empty().
+	 */
+	public Optional<V> get(K k) {
+		return this.current.get(k);
+	}
+
+	/**
+	 * Returns whether k is in the table.
+	 *
+	 * @param k The key to look up.
+	 * @return Whether k is in the table.
+	 */
+	public boolean containsKey(K k) {
+		return this.current.containsKey(k);
+	}
+
+	/**
+	 * Returns the number of entries in the table.
+	 *
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return this.current.size();
+	}
+
+	/**
+	 * Returns the table as it is now. It is immutable, so later changes
+	 * don't affect it.
+	 *
+	 * @return The current table.
+	 */
+	public BstTable<K,V> table() {
+		return this.current;
+	}
+
+	/**
+	 * Inserts k:v, or replaces the value of k, and logs the change.
+	 *
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 * @throws UncheckedIOException If the log can't be written.
+	 */
+	public void put(K k, V v) {
+		commit(new Batch<K,V>().put(k, v));
+	}
+
+	/**
+	 * Removes k, if it is in the table, and logs the change.
+	 *
+	 * @param k The key to remove.
+	 * @throws UncheckedIOException If the log can't be written.
+	 */
+	public void remove(K k) {
+		commit(new Batch<K,V>().remove(k));
+	}
+
+	/**
+	 * Applies every change in batch, as a single log record, so that after
+	 * a crash either all of them or none of them are recovered.
+	 *
+	 * @param batch The changes to make.
+	 * @throws UncheckedIOException If the log can't be written.
+	 */
+	public void commit(Batch<K,V> batch) {
+		if(batch.changes.isEmpty()) return;
+		byte[] record = encode(batch);
+
+		this.lock.lock();
+		try {
+			check();
+			Bst<K,V> tree = this.current.getTree();
+			for(Batch.Change<K,V> change : batch.changes) {
+				tree = change.remove ? remove(tree, change.key) : tree.put(change.key, change.value);
+			}
+			this.current = new BstTable<K,V>(tree);
+			this.pending.write(record, 0, record.length);
+			long sequence = ++this.appended;
+
+			while(this.durable < sequence) {
+				if(this.flushing) {
+					this.flushed.awaitUninterruptibly();
+					check();
+				}
+				else {
+					flush();
+				}
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		if(this.logSize >= this.checkpointBytes && this.checkpointing.compareAndSet(false, true)) {
+			try {
+				checkpoint();
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			finally {
+				this.checkpointing.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Writes everything pending to the log, letting other writers append to
+	 * pending in the meantime, and wakes the writers it has flushed. Called
+	 * with the lock held, by a writer which found no flush in progress.
+	 */
+	private void flush() {
+		this.flushing = true;
+		ByteArrayOutputStream batch = this.pending;
+		long upTo = this.appended;
+		this.pending = new ByteArrayOutputStream();
+		this.lock.unlock();
+		try {
+			ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+			while(bytes.hasRemaining()) {
+				this.log.write(bytes);
+			}
+			if(this.policy == SyncPolicy.ALWAYS) {
+				this.log.force(false);
+			}
+		}
+		catch(IOException e) {
+			this.failure = e;
+		}
+		finally {
+			this.lock.lock();
+			this.flushing = false;
+			this.flushed.signalAll();
+		}
+		check();
+		this.durable = upTo;
+		this.logSize += batch.size();
+	}
+
+	/**
+	 * Throws if the table is closed, or a flush has failed (in which case
+	 * the log may be missing changes that the table in memory has).
+	 */
+	private void check() {
+		if(this.failure != null) {
+			throw new UncheckedIOException("The write-ahead log failed", this.failure);
+		}
+		if(this.closed) {
+			throw new IllegalStateException("The table is closed");
+		}
+	}
+
+	private byte[] encode(Batch<K,V> batch) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream payload = new DataOutputStream(bytes);
+			payload.writeInt(0);
+			payload.writeInt(0);
+			payload.writeInt(batch.changes.size());
+			for(Batch.Change<K,V> change : batch.changes) {
+				payload.writeByte(change.remove ? REMOVE : PUT);
+				this.keyCodec.write(change.key, payload);
+				if(!change.remove) this.valueCodec.write(change.value, payload);
+			}
+
+			/*
+			 * Fill in the length and checksum of the payload at the front.
+			 */
+			byte[] record = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+			ByteBuffer.wrap(record).putInt(record.length - RECORD_HEADER_SIZE).putInt((int) crc.getValue());
+			return record;
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the current table to a snapshot, so that recovery doesn't have
+	 * to replay the log so far. A new log is started first, and writers only
+	 * wait for that; the snapshot itself is written while they carry on.
+	 * The old snapshot and log are deleted once the new snapshot is safely
+	 * on disk.
+	 *
+	 * @throws IOException If the snapshot or the new log can't be written.
+	 */
+	public void checkpoint() throws IOException {
+		BstTable<K,V> table;
+		long generation;
+		this.lock.lock();
+		try {
+			check();
+			while(this.flushing) {
+				this.flushed.awaitUninterruptibly();
+				check();
+			}
+			if(this.pending.size() > 0) {
+				flush();
+			}
+			this.log.force(false);
+
+			table = this.current;
+			generation = this.generation + 1;
+			FileChannel next = FileChannel.open(logFile(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			this.log.close();
+			this.log = next;
+			this.generation = generation;
+			this.logSize = 0;
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		/*
+		 * write() syncs the directory after renaming the snapshot in to place,
+		 * so the deletes can't reach the disk before the snapshot does.
+		 */
+		MappedTable.write(table, snapshotFile(generation), this.keyCodec, this.valueCodec);
+		deleteBefore(generation);
+	}
+
+	/**
+	 * Flushes the log and closes it. The table can't be changed afterwards.
+	 * The log is closed even if the flush fails, and calling close() again
+	 * after that just marks the table closed.
+	 *
+	 * @throws IOException If the log can't be flushed.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.closed) return;
+			while(this.flushing) {
+				this.flushed.awaitUninterruptibly();
+			}
+			try {
+				if(this.log.isOpen()) {
+					/*
+					 * flush() lets go of the lock while it writes, so writers may
+					 * have added more to pending by the time it returns.
+					 */
+					while(this.pending.size() > 0 && this.failure == null) {
+						flush();
+					}
+					this.log.force(false);
+				}
+			}
+			finally {
+				this.log.close();
+			}
+			this.closed = true;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * A list of changes to make together, with DurableTable.commit().
+	 *
+	 *     table.commit(new DurableTable.Batch<K,V>().put(a, x).put(b, y).remove(c));
+	 */
+	public static final class Batch<K extends Comparable<K>,V> {
+		private final ArrayList<Change<K,V>> changes = new ArrayList<Change<K,V>>();
+
+		/**
+		 * Adds a put of k:v to the batch.
+		 *
+		 * @param k The key for the key:value pair.
+		 * @param v The value for the key:value pair.
+		 * @return This batch.
+		 */
+		public Batch<K,V> put(K k, V v) {
+			this.changes.add(new Change<K,V>(false, k, v));
+			return this;
+		}
+
+		/**
+		 * Adds a removal of k to the batch.
+		 *
+		 * @param k The key to remove.
+		 * @return This batch.
+		 */
+		public Batch<K,V> remove(K k) {
+			this.changes.add(new Change<K,V>(true, k, null));
+			return this;
+		}
+
+		/**
+		 * Returns the number of changes in the batch.
+		 *
+		 * @return The number of changes.
+		 */
+		public int size() {
+			return this.changes.size();
+		}
+
+		private static final class Change<K,V> {
+			final boolean remove;
+			final K key;
+			final V value;
+
+			Change(boolean remove, K key, V value) {
+				this.remove = remove;
+				this.key = key;
+				this.value = value;
+			}
+		}
+	}
+}
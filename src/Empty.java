@@ -1,11 +1,35 @@
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.Spliterator;
 
 public class Empty<K extends Comparable<K>,V> implements Bst<K,V> {
 	
+	/**
+	 * The one shared empty tree. Empty has no fields, so a single instance
+	 * can safely stand in for every leaf of every tree, whatever its types.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final Empty EMPTY = new Empty();
+	
 	/**
 	 * Nothing to do in the constructor.
+	 * 
+	 * Prefer Empty.empty(), which doesn't allocate.
 	 */
 	public Empty(){}
+	
+	/**
+	 * Returns the shared empty tree. Fork and Empty use this for every leaf
+	 * they build, so a tree of n entries no longer holds n+1 Empty objects,
+	 * and put() doesn't allocate any.
+	 * 
+	 * @return The shared, typed, empty tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<K>,V> Empty<K,V> empty() {
+		return (Empty<K,V>) EMPTY;
+	}
     
 	/**
 	 * Always returns true because an Empty
@@ -60,7 +84,7 @@ public class Empty<K extends Comparable<K>,V> implements Bst<K,V> {
 	 */
 	@Override
 	public Bst<K,V> put(K k, V v) {
-		return new Fork<K,V>(k, v, new Empty<K,V>(), new Empty<K,V>());
+		return new Fork<K,V>(k, v, Empty.<K,V>empty(), Empty.<K,V>empty());
 	}
 
 	/** 
@@ -178,12 +202,12 @@ public class Empty<K extends Comparable<K>,V> implements Bst<K,V> {
 	}
 
 	/**
-	 * Always returns an Empty BST because
+	 * Always returns this Empty BST because
 	 * the Empty BST is always balanced.
 	 */
 	@Override
 	public Bst<K,V> balanced() {
-		return new Empty<K,V>();
+		return this;
 	}
 
 	@Override
@@ -206,4 +230,116 @@ public class Empty<K extends Comparable<K>,V> implements Bst<K,V> {
 		return Optional.empty();
 	}
 
+	/**
+	 * Always returns 0, because there are no
+	 * keys in an Empty BST.
+	 */
+	@Override
+	public int rank(K k) {
+		return 0;
+	}
+
+	/**
+	 * Always returns 0, the hash of no entries.
+	 */
+	@Override
+	public long contentHash() {
+		return 0;
+	}
+
+	/**
+	 * Always returns 0, the hash of no entries.
+	 */
+	@Override
+	public long prefixHash(K k) {
+		return 0;
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<Entry<K,V>> select(int i) {
+		return Optional.empty();
+	}
+
+	/**
+	 * There is nothing to iterate over, so always
+	 * return an empty iterator.
+	 */
+	@Override
+	public Iterator<Entry<K,V>> iterator() {
+		return Collections.emptyIterator();
+	}
+
+	/**
+	 * Returns a Spliterator with nothing in it,
+	 * which still reports the same characteristics
+	 * as that of a Fork.
+	 */
+	@Override
+	public Spliterator<Entry<K,V>> spliterator() {
+		return new BstSpliterator<K,V>(this);
+	}
+
+	/**
+	 * There are no entries to leave out, so
+	 * always return this Empty BST.
+	 */
+	@Override
+	public Bst<K,V> headTree(K to, boolean inclusive) {
+		return this;
+	}
+
+	/**
+	 * There are no entries to leave out, so
+	 * always return this Empty BST.
+	 */
+	@Override
+	public Bst<K,V> tailTree(K from, boolean inclusive) {
+		return this;
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<Entry<K,V>> floorEntry(K k) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<Entry<K,V>> ceilingEntry(K k) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<Entry<K,V>> lowerEntry(K k) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<Entry<K,V>> higherEntry(K k) {
+		return Optional.empty();
+	}
+
 }
@@ -1,10 +1,16 @@
 import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
 
 public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 
-	private final Entry<K,V> root;
-	private final Bst<K,V> left, right;
+	protected final Entry<K,V> root;
+	protected final Bst<K,V> left, right;
+	private final Entry<K,V> smallest, largest;
+	private final int size, height;
+	private final long hash;
 	
 	/**
 	 * Creates a new instance of the Fork class,
@@ -17,14 +23,70 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	 * @param right The right branch for the BST.
 	 */
 	public Fork(K key, V value, Bst<K,V> left, Bst<K,V> right) {
+		this(new Entry<K,V>(key,value), left, right);
+	}
+	
+	/**
+	 * Creates a new instance of the Fork class which reuses an existing
+	 * Entry as its root. Entries are immutable, so they can be shared
+	 * between trees (balanced() uses this to avoid copying them).
+	 * @param root The Entry for the root of the BST.
+	 * @param left The left branch for the BST.
+	 * @param right The right branch for the BST.
+	 */
+	protected Fork(Entry<K,V> root, Bst<K,V> left, Bst<K,V> right) {
 		
 		assert(left != null && right != null); //Neither of the branches should be null.
 		
-		assert(left.smaller(key)) && right.bigger(key); //Don't violate the BST property.
+		assert(left.smaller(root.getKey())) && right.bigger(root.getKey()); //Don't violate the BST property.
 		
-		this.root = new Entry<K,V>(key,value);
+		this.root = root;
 		this.left = left;
 		this.right = right;
+		
+		/*
+		 * The branches can't change, so work out the smallest and largest entries
+		 * and the size and height of this tree once, here, rather than walking the
+		 * whole tree every time.
+		 */
+		this.smallest = (left instanceof Fork) ? ((Fork<K,V>) left).smallest : this.root;
+		this.largest = (right instanceof Fork) ? ((Fork<K,V>) right).largest : this.root;
+		this.size = 1 + left.size() + right.size();
+		int leftHeight = left.height();
+		int rightHeight = right.height();
+		this.height = 1 + ((leftHeight > rightHeight) ? leftHeight : rightHeight);
+		this.hash = left.contentHash() + entryHash(root) + right.contentHash();
+		if(BstMetrics.ENABLED) BstMetrics.allocated();
+	}
+
+	/**
+	 * Compares k with the key of the root, counting the comparison when
+	 * BstMetrics is on.
+	 *
+	 * @param k The key to compare.
+	 * @return k.compareTo(the root key).
+	 */
+	protected final int compareToRoot(K k) {
+		if(BstMetrics.ENABLED) BstMetrics.compared();
+		return k.compareTo(this.getRootKey());
+	}
+
+	/**
+	 * The hash of a single entry, from the hashCode() of its key and value.
+	 * The two 32-bit hash codes are packed in to one long, which is then
+	 * mixed (with the finaliser of MurmurHash3) so that every bit of the
+	 * result depends on every bit of both. Entries are added up to hash a
+	 * tree, so a weak mix like key ^ value would let swapped values cancel
+	 * out.
+	 */
+	static long entryHash(Entry<?,?> e) {
+		long h = ((long) e.getKey().hashCode() << 32) | (Objects.hashCode(e.getValue()) & 0xffffffffL);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
 	}
 	
 	/**
@@ -51,143 +113,30 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	/**
 	 * Does every node have it's key smaller than k?
 	 * 
+	 * This only needs to look at the largest key, which is stored when the tree
+	 * is built, so it takes O(1). The constructor relies on this to check the
+	 * BST property cheaply.
+	 * 
 	 * @return Whether or not all keys are lower than k.
 	 * @param k The value that we are checking whether or not all keys are smaller than.
 	 */
 	@Override
 	public boolean smaller(K k) {
-		/* CASE : BOTH BRANCHES ARE EMPTY
-		 * 
-		 * If both branches are empty, we're at the bottom of the BST.
-		 */
-		if(this.left instanceof Empty) {
-			if(this.right instanceof Empty) {
-				return true; // We are at the bottom of the branch and there are no conflicts.
-			}
-			/* CASE : THE LEFT BRANCH IS EMPTY BUT THE RIGHT BRANCH IS NOT
-			 * 
-			 * If the root value of the right Fork is less
-			 * than k, return the value of smaller on the
-			 * right fork.
-			 * 
-			 * We can cast this.right to a Fork safely, because we know that it isn't Empty, 
-			 * and it can only be either Empty or a Fork.
-			 */
-			else if((k.compareTo(((Fork<K,V>)this.right).getRootKey())) > 0) {
-				    return this.right.smaller(k);
-			}
-			/* 
-			 * There is a key > k at the root of the right Fork. Hence, return false.
-			 */
-			else {
-				return false;
-			}
-		}
-	    /* CASE : THE RIGHT BRANCH IS EMPTY BUT THE LEFT BRANCH IS NOT
-	     * 
-	     * If the root value of the left Fork is less
-	     * than k, return the value of smaller on the
-	     * left fork. (If the right Fork is Empty). 
-	     */
-		else if(this.right instanceof Empty) {
-			if((k.compareTo(((Fork<K,V>)this.left).getRootKey())) > 0) {
-			    return this.left.smaller(k);
-			}
-			/* 
-			 * There is a key > k at the root of the left Fork. Hence, return false.
-			 */
-			else {
-				return false;
-			}
-		}
-		/* CASE : NEIHER BRANCH IS EMPTY
-		 * 
-		 * If the root value of both Forks is less
-		 * than k, return the value of smaller on the
-		 * left fork and then right fork.
-		 */
-		else {
-			if(((k.compareTo(((Fork<K,V>)this.left).getRootKey())) > 0) && ((k.compareTo(((Fork<K,V>)this.right).getRootKey())) > 0)) {
-			    return this.left.smaller(k) && this.right.smaller(k);	
-			}
-			/* 
-			 * There is a key > k at the root of one of the Forks. Hence, return false.
-			 */
-			else {
-				return false;
-			}
-		}
+		return this.largest.getKey().compareTo(k) < 0;
 	}
 
 	/**
 	 * Does every node have it's key bigger than k?
 	 * 
+	 * This only needs to look at the smallest key, which is stored when the tree
+	 * is built, so it takes O(1).
+	 * 
 	 * @return Whether or not all keys are higher than k.
 	 * @param k The value that we are checking whether or not all keys are bigger than.
 	 */
 	@Override
 	public boolean bigger(K k) {
-		/* CASE : BOTH BRANCHES ARE EMPTY
-		 * 
-		 * If both branches are empty, we're at the bottom of the BST.
-		 */
-		if(this.left instanceof Empty) {
-			if(this.right instanceof Empty) {
-				return true; // We are at the bottom of the branch and there are no conflicts.
-			}
-			/* CASE : THE LEFT BRANCH IS EMPTY BUT THE RIGHT BRANCH IS NOT
-			 * 
-			 * If the root value of the right Fork is greater
-			 * than k, return the value of bigger on the
-			 * right fork.
-			 * 
-			 * We can cast this.right to a Fork safely, because we know that it isn't Empty, 
-			 * and it can only be either Empty or a Fork.
-			 */
-			else if((k.compareTo(((Fork<K,V>)this.right).getRootKey())) < 0) {
-				    return this.right.bigger(k);
-				}
-			    /* 
-			     * There is a key < k at the root of the right Fork. Hence, return false.
-			     */
-			    else {
-			    	return false;
-		     	}
-			}
-	    /* CASE : THE RIGHT BRANCH IS EMPTY BUT THE LEFT BRANCH IS NOT
-	     * 
-	     * If the root value of the left Fork is greater
-	     * than k, return the value of bigger on the
-	     * left fork. (If the right Fork is Empty). 
-	     */
-		else if(this.right instanceof Empty) {
-			if((k.compareTo(((Fork<K,V>)this.left).getRootKey())) < 0) {
-			    return this.left.bigger(k);
-			}
-			/* 
-			 * There is a key < k at the root of the left Fork. Hence, return false.
-			 */
-			else {
-				return false;
-			}
-		}
-		/* CASE : NEIHER BRANCH IS EMPTY
-		 * 
-		 * If the root value of both Forks is greater
-		 * than k, return the value of bigger on the
-		 * left fork and then right fork.
-		 */
-		else {
-			if(((k.compareTo(((Fork<K,V>)this.left).getRootKey())) < 0) && ((k.compareTo(((Fork<K,V>)this.right).getRootKey())) < 0)) {
-			    return this.left.bigger(k) && this.right.bigger(k);	
-			}
-			/* 
-			 * There is a key < k at the root of one of the Forks. Hence, return false.
-			 */
-			else {
-				return false;
-			}
-		}
+		return this.smallest.getKey().compareTo(k) > 0;
 	}
 
 	/**
@@ -198,40 +147,24 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	 */
 	@Override
 	public boolean has(K k) {
-		if(this.right instanceof Empty) {
-			if(this.left instanceof Empty) {
-				/* CASE : BOTH BRANCHES ARE EMPTY.
-				 * 
-				 * If both branches are empty, return whether or not the root is 
-				 * equal to k.
-				 */
-				return (k.compareTo(this.getRootKey()) == 0);
-			}
-			/* CASE : THE RIGHT BRANCH IS EMPTY BUT THE LEFT BRANCH IS NOT.
-			 * 
-			 * If the right branch is Empty but the left branch is not,
-			 * return whether or not the root is equal to k, and the 
-			 * result of has() on the left branch.
-			 */
-	                 return (k.compareTo(this.getRootKey()) == 0) || this.left.has(k);
+		if(BstMetrics.ENABLED) BstMetrics.visited();
+		/*
+		 * Compare k against the root exactly once. Every key in the left branch is
+		 * smaller than the root and every key in the right branch is bigger (the
+		 * constructor asserts this), so only one branch can contain k and the other
+		 * one never needs to be looked at. This makes has() O(height) rather than O(n).
+		 */
+		int comparison = compareToRoot(k);
+		if(comparison < 0) {
+			return this.left.has(k);
 		}
-		else if(this.left instanceof Empty) { 
-		    /* CASE : THE LEFT BRANCH IS EMPTY BUT THE RIGHT BRANCH IS NOT.
-		     * 
-		     * If the left branch is Empty but the right branch is not,
-		     * return whether or not the root is equal to k, and the
-		     * result of has() on the right branch.
-		     */
-			return (k.compareTo(this.getRootKey()) == 0) || this.right.has(k);
+		else if(comparison > 0) {
+			return this.right.has(k);
 		}
-	    else {
-		    /* CASE : NEITHER BRANCH IS EMPTY
-		     * 
-		     *  If neither branch is Empty, return whether or not the root is
-		     *  equal to k, and the result of has() on both branches.
-		     */
-		    return (k.compareTo(this.getRootKey()) == 0) || this.left.has(k) || this.right.has(k);
-	    }
+		/*
+		 * k is equal to the root key, so it's in the tree.
+		 */
+		return true;
 	}
 
 	/**
@@ -243,62 +176,20 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	 */
 	@Override
 	public Optional<V> find(K k) {
-        if(this.right instanceof Empty) {
-        	if(this.left instanceof Empty) {
-				/* CASE : BOTH BRANCHES ARE EMPTY
-		         * 
-		         * If both branches are empty and we haven't found k, return 
-		         * Optional.empty() because k isn't in the tree.
-		         */
-        		return Optional.empty();
-        	}
-        	/*
-        	 * CASE : THE RIGHT BRANCH IS EMPTY BUT THE LEFT BRANCH IS NOT
-        	 * 
-        	 * If the right branch is empty but the left branch is not, if the 
-        	 * root key is equal to k, return the root node, otherwise return
-        	 * find() on the left branch. 
-        	 */
-        	if(k.compareTo(this.getRootKey()) == 0) {
-        		return Optional.of(this.root.getValue());
-        	}
-        	else {
-        		return this.left.find(k);
-        	}
-        }
-        else if(this.left instanceof Empty) {
-        	/* CASE : THE LEFT BRANCH IS EMPTY BUT THE RIGHT BRANCH IS NOT
-        	 * 
-        	 * If the left branch is empty but the right branch is not, if the
-        	 * root key is equal to k, return the root node, otherwise return 
-        	 * find() on the right branch.
-        	 */
-        	if(k.compareTo(this.getRootKey()) == 0) {
-        		return Optional.of(this.root.getValue());
-        	}
-        	else {
-        		return this.right.find(k);
-        	}
-        }
-        else {
-        	/* CASE : NEITHER BRANCH IS EMPTY
-        	 * 
-        	 * If neither branch is empty, if the root key is equal to k, return
-        	 * the root node, otherwise return find on both branches.
-        	 */
-        	if(k.compareTo(this.getRootKey()) == 0) {
-        		return Optional.of(this.root.getValue());
-        	}
-        	else {
-        		/*
-        		 * Imagine this like : this.right.find(k) && this.left.find(k);
-        		 */
-        		if(this.right.find(k) == Optional.empty()) {
-        		    return this.left.find(k);
-        		}
-        		return this.right.find(k);
-        	}
-        }
+		if(BstMetrics.ENABLED) BstMetrics.visited();
+		/*
+		 * Same descent as has() : one comparison per level, and only the branch that
+		 * could contain k is visited. Empty.find() returns Optional.empty() once we
+		 * fall off the bottom of the tree.
+		 */
+		int comparison = compareToRoot(k);
+		if(comparison < 0) {
+			return this.left.find(k);
+		}
+		else if(comparison > 0) {
+			return this.right.find(k);
+		}
+		return Optional.of(this.root.getValue());
 	}
 
 	/**
@@ -317,6 +208,7 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	 */
 	@Override
 	public Bst<K,V> put(K k, V v) {
+		if(BstMetrics.ENABLED) BstMetrics.visited();
 	         /*
 	          * If both branches are empty, make a comparison based on the root node,
 	          * and create a new Fork with the root, another new Fork (with a new 
@@ -327,8 +219,8 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 		    	  * If k is equal to the key of the root node, return a new Fork 
 		    	  * consisting of the new Entry, and two Empty branches.
 		    	  */
-		    	 if(k.compareTo(this.getRootKey()) == 0) {
-		    		 return new Fork<K,V>(k, v, new Empty<K,V>(), new Empty<K,V>());
+		    	 if(compareToRoot(k) == 0) {
+		    		 return new Fork<K,V>(k, v, Empty.<K,V>empty(), Empty.<K,V>empty());
 		    	 }
 		    	 /*
 		    	  * If k is less than the key of the root node, return a new Fork 
@@ -336,15 +228,15 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 		    	  * the new Entry as it's root and two Empty branches, and an 
 		    	  * Empty branch.
 		    	  */
-		         else if(k.compareTo(this.getRootKey()) < 0) {
-	            	 return new Fork<K,V>(this.root.getKey(), this.root.getValue(), new Fork<K,V>(k, v, new Empty<K,V>(), new Empty<K,V>()), this.right);
+		         else if(compareToRoot(k) < 0) {
+	            	 return new Fork<K,V>(this.root.getKey(), this.root.getValue(), new Fork<K,V>(k, v, Empty.<K,V>empty(), Empty.<K,V>empty()), this.right);
 	             }
 		    	 /*
 		    	  * If k is greater than the key of the root node, return a new Fork 
 		    	  * consisting of the current root node, an Empty branch and a new fork 
 		    	  * consisting of the new Entry as it's root and two Empty branches, 
 		    	  */	    	 
-	             return new Fork<K,V>(this.root.getKey(), this.root.getValue(), this.left, new Fork<K,V>(k, v, new Empty<K,V>(), new Empty<K,V>()));
+	             return new Fork<K,V>(this.root.getKey(), this.root.getValue(), this.left, new Fork<K,V>(k, v, Empty.<K,V>empty(), Empty.<K,V>empty()));
 	         }
 		     /*
 		      * We aren't at the bottom of the tree, so these cases will require recursive
@@ -354,7 +246,7 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 		      * of the new Entry as a root, with the current left and right branches as 
 		      * branches. 
 		      */
-		     else if(k.compareTo(this.getRootKey()) == 0) {
+		     else if(compareToRoot(k) == 0) {
 		    	 return new Fork<K,V>(k, v, this.left, this.right);
 		     }
 		     /*
@@ -362,7 +254,7 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 		      * of the current root and the result of put() on the left branch, and the current
 		      * right branch as branches.
 		      */
-		     else if(k.compareTo(this.getRootKey()) < 0) {
+		     else if(compareToRoot(k) < 0) {
 		    	 return new Fork<K,V>(this.root.getKey(), this.root.getValue(), this.left.put(k,v), this.right);
 		     }
 		     /*
@@ -370,7 +262,7 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 		      * of the current root and the current left branch and the result of put() on the
 		      * right branch as branches.
 		      */
-		     else if(k.compareTo(this.getRootKey()) > 0) {
+		     else if(compareToRoot(k) > 0) {
 		    	 return new Fork<K,V>(root.getKey(), root.getValue(), this.left, this.right.put(k,v));
 		     }
 		     /*
@@ -389,10 +281,11 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	 */
 	@Override
 	public Optional<Bst<K,V>> delete(K k) {
+		if(BstMetrics.ENABLED) BstMetrics.visited();
 		/*
 		 * Once we get to the value that we need...
 		 */
-        if(k.compareTo(this.getRootKey()) == 0) {
+        if(compareToRoot(k) == 0) {
         	/*
         	 * The left branch is empty, so just return the right branch,
         	 * assuming that it's there.
@@ -423,7 +316,7 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
         	 * If k is less than the key of the current node, we need to delete(k) 
         	 * from the left branch. 
         	 */
-            if(k.compareTo(this.getRootKey()) < 0) {
+            if(compareToRoot(k) < 0) {
             	return Optional.of(new Fork<K,V>(root.getKey(), root.getValue(), this.left.delete(k).get(), this.right));
             }
             /*
@@ -436,22 +329,13 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 
 	/**
 	 * Returns the entry with the smallest key (left-most node), if it exists.
+	 * This is stored when the tree is built, so it takes O(1).
 	 * 
 	 * @return The Entry with the smallest key, if it exists.
 	 */
 	@Override
 	public Optional<Entry<K,V>> smallest() {
-		/*
-		 * If the left branch is empty, this is the leftmost node, so return it.
-		 */
-		if(this.left instanceof Empty) {
-			return Optional.of(this.root);
-		}
-		/*
-		 * If the left branch isn't empty, return the result of smallest() on the
-		 * left branch.
-		 */
-		return this.left.smallest();
+		return Optional.of(this.smallest);
 	}
 
 	/**
@@ -470,22 +354,13 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	
 	/**
 	 * Returns the entry with the largest key (right-most node), if it exists.
+	 * This is stored when the tree is built, so it takes O(1).
 	 * 
 	 * @return The Entry with the largest key, if it exists.
 	 */
 	@Override
 	public Optional<Entry<K,V>> largest() {
-		/*
-		 * If the right branch is empty, this is the rightmost node, so return it.
-		 */
-		if(this.right instanceof Empty) {
-			return Optional.of(this.root);
-		}
-		/*
-		 * If the right branch isn't empty, return the result of largest() on the
-		 * right branch.
-		 */
-		return this.right.largest();
+		return Optional.of(this.largest);
 	}
 
 	/**
@@ -544,38 +419,26 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
     }
 	 
     /**
-     * Counts how many values are stored in the tree.
+     * Counts how many values are stored in the tree. This is stored
+     * when the tree is built, so it takes O(1).
      * 
      * @return The number of nodes in the Bst.
      */
 	@Override
 	public int size() {
-		/*
-		 * Empty.size() = 0, .: We can just do this ^-^
-		 */
-		return 1 + left.size() + right.size();
+		return this.size;
 	}
 
 	/**
 	 * Gives the height of this tree. The height of the empty tree is
-	 * -1 by convention.
+	 * -1 by convention. This is stored when the tree is built, so it
+	 * takes O(1).
 	 * 
 	 * @return The height of the Bst.
 	 */
 	@Override
 	public int height() {
-		/*
-		 * Calculate the height of each subtree and return the largest one, 
-		 * plus one. Calculate the height by doing 1 + the height of the
-		 * subtrees.
-		 */
-		int leftHeight = 1 + this.left.height();
-		int rightHeight = 1 + this.right.height();
-		
-		/*
-		 * Return the largest of the two subtrees (See : https://docs.oracle.com/javase/tutorial/java/nutsandbolts/op2.html)
-		 */
-		return (leftHeight > rightHeight) ? leftHeight : rightHeight;
+		return this.height;
 	}
 
 	/**
@@ -660,65 +523,38 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	    
 	}
 
+	/**
+	 * Builds a tree of minimal height from an array of entries which is
+	 * sorted by key (as filled in by saveInOrder()).
+	 * 
+	 * @param a The sorted entries.
+	 * @return A balanced tree containing exactly the entries of a.
+	 */
     public Bst<K,V> balanceArray(Entry<K,V>[] a) {
-    	
+    	return balanceArray(a, 0, a.length);
+    }
+
+    /**
+     * Builds a tree of minimal height from the sorted entries a[start..end).
+     * 
+     * Rather than copying each half in to a new array, we just work with the
+     * sub-array between "start" and "end" in recursive calls, so the only
+     * thing this allocates is one Fork per entry. The entries themselves are
+     * reused. Every entry is visited once, so this is O(n).
+     */
+    static <K extends Comparable<K>,V> Bst<K,V> balanceArray(Entry<K,V>[] a, int start, int end) {
     	/*
-    	 * If the Array is empty, return Empty.
+    	 * If the sub-array is empty, return Empty.
     	 */
-    	if(a.length == 0) return new Empty<K,V>();
-       	
-    	/* 
-    	 * If the Array is only one element, return a new Fork consisting
-    	 * of that element and two Empty branches.
-    	 */
-    	if(a.length == 1) return new Fork<K,V>(a[0].getKey(), a[0].getValue(), new Empty<K,V>(), new Empty<K,V>());
+    	if(start == end) return Empty.<K,V>empty();
     	
     	/*
-	     * Otherwise, take the middle Entry, or the one greater than it. Integer division always
-	     * rounds down, but a.length returns 1 greater than the index of the highest element.
-	     */
-	    Entry<K,V> middle = a[a.length/2];
-	    
-	    /*
-	     * Now take the other two sides of the array, and partition them in to two arrays, 
-	     * leftArray and rightArray respectively.
-	     */
-	    
-	    /*
-	     * First of all, work out the sizes of each array, based on the following rules:
-	     *
-	     * >> If the original array, of length l, is even in size, the leftArray will have
-	     *    length (l/2) and the rightArray will have length (l/2 - 1).
-	     * >> If the original array, of length l, is odd in size, both Arrays will have 
-	     *    length (l/2).
-	     */
-	    
-	    int leftLength = a.length/2; // leftLength is always (l/2).
-	    int rightLength = ((a.length % 2) == 0) ? ((a.length/2) - 1) : (a.length/2);
-	    
-	    /*
-	     * Now invoke two new generic arrays using the ancient Escardo ritual.
-	     */
-	    @SuppressWarnings("unchecked")
-	    Entry<K,V>[] leftArray = (Entry<K,V>[]) Array.newInstance(this.root.getClass(), leftLength);
-	    @SuppressWarnings("unchecked")
-	    Entry<K,V>[] rightArray = (Entry<K,V>[]) Array.newInstance(this.root.getClass(), rightLength);
-	    
-	    /*
-	     * Populate each array with the respective values.
-	     */
-	    for(int i = 0; i < leftLength; i++) {
-	    	leftArray[i] = a[i];
-	    }
-	    for(int i = 0; i < rightLength; i++) {
-	    	rightArray[i] = a[a.length - i - 1];
-	    }
-	    
-	    /*
-	     * Create a balanced tree by making a new Fork consisting of the middle Entry, and the result
-	     * of balanceArray() on leftArray and rightArray.
-	     */
-	    return new Fork<K,V>(middle.getKey(), middle.getValue(), balanceArray(leftArray), balanceArray(rightArray));
+    	 * Otherwise, take the middle Entry (or the one after it, if there are an
+    	 * even number) as the root. The entries before it make up the left branch
+    	 * and the entries after it make up the right branch.
+    	 */
+    	int middle = (start + end) >>> 1;
+    	return new Fork<K,V>(a[middle], balanceArray(a, start, middle), balanceArray(a, middle + 1, end));
     }
 
 	@Override
@@ -740,4 +576,235 @@ public class Fork<K extends Comparable<K>,V> implements Bst<K,V> {
 	public Optional<Bst<K, V>> getRight() {
 		return Optional.of(this.right);
 	}
+
+	/**
+	 * How many keys in this tree are smaller than k?
+	 * 
+	 * @return The number of keys smaller than k, which is the position of k in key order if it's in the tree.
+	 * @param k The key to find the rank of.
+	 */
+	@Override
+	public int rank(K k) {
+		/*
+		 * Every key in the left branch is smaller than the root, so when we go
+		 * right we can count the whole left branch and the root in one go, using
+		 * the stored sizes. This is one comparison per level, so O(height).
+		 */
+		int comparison = k.compareTo(this.getRootKey());
+		if(comparison < 0) {
+			return this.left.rank(k);
+		}
+		else if(comparison > 0) {
+			return 1 + this.left.size() + this.right.rank(k);
+		}
+		return this.left.size();
+	}
+
+	/**
+	 * Returns the hash of the entries of this tree, which was worked out
+	 * from the hashes of the branches when the tree was built.
+	 * 
+	 * @return The sum of the entry hashes of this tree.
+	 */
+	@Override
+	public long contentHash() {
+		return this.hash;
+	}
+
+	/**
+	 * Returns the sum of the entry hashes of the keys smaller than k. This
+	 * follows the same path as rank(), adding up stored hashes instead of
+	 * sizes, so it is O(height).
+	 * 
+	 * @return The hash of the entries with keys smaller than k.
+	 * @param k The key to stop at.
+	 */
+	@Override
+	public long prefixHash(K k) {
+		int comparison = k.compareTo(this.getRootKey());
+		if(comparison < 0) {
+			return this.left.prefixHash(k);
+		}
+		else if(comparison > 0) {
+			return this.left.contentHash() + entryHash(this.root) + this.right.prefixHash(k);
+		}
+		return this.left.contentHash();
+	}
+
+	/**
+	 * Returns the entry with the i-th smallest key (counting from 0), if it exists.
+	 * 
+	 * @return The i-th Entry in key order, or Optional.empty() if i is out of range.
+	 * @param i The position of the Entry in key order.
+	 */
+	@Override
+	public Optional<Entry<K,V>> select(int i) {
+		/*
+		 * The root is at position left.size(), so this tells us which branch the
+		 * i-th entry is in without looking at any keys.
+		 */
+		int leftSize = this.left.size();
+		if(i < leftSize) {
+			return this.left.select(i);
+		}
+		else if(i > leftSize) {
+			return this.right.select(i - leftSize - 1);
+		}
+		return Optional.of(this.root);
+	}
+
+	/**
+	 * Returns a lazy iterator over the entries in key order.
+	 * 
+	 * @return An iterator starting at the smallest key.
+	 */
+	@Override
+	public Iterator<Entry<K,V>> iterator() {
+		return new BstIterator<K,V>(this);
+	}
+
+	/**
+	 * Returns a Spliterator over the entries in key order, which
+	 * splits along the branches of the tree.
+	 */
+	@Override
+	public Spliterator<Entry<K,V>> spliterator() {
+		return new BstSpliterator<K,V>(this);
+	}
+
+	/**
+	 * Returns a tree with just the entries whose keys are smaller than to
+	 * (or equal to it, if inclusive).
+	 * 
+	 * @return A tree with the entries of this tree up to to.
+	 * @param to The upper bound.
+	 * @param inclusive Whether or not an entry with key to is kept.
+	 */
+	@Override
+	public Bst<K,V> headTree(K to, boolean inclusive) {
+		/*
+		 * If even the largest key is in range, the whole tree is, so share it.
+		 */
+		int comparison = this.largest.getKey().compareTo(to);
+		if(comparison < 0 || (comparison == 0 && inclusive)) {
+			return this;
+		}
+		/*
+		 * Otherwise, if the root is in range then so is the whole left branch,
+		 * and only the right branch needs cutting down. If it isn't, then
+		 * neither is anything in the right branch.
+		 */
+		comparison = this.getRootKey().compareTo(to);
+		if(comparison < 0 || (comparison == 0 && inclusive)) {
+			return new Fork<K,V>(this.root, this.left, this.right.headTree(to, inclusive));
+		}
+		return this.left.headTree(to, inclusive);
+	}
+
+	/**
+	 * Returns a tree with just the entries whose keys are bigger than from
+	 * (or equal to it, if inclusive).
+	 * 
+	 * @return A tree with the entries of this tree from from.
+	 * @param from The lower bound.
+	 * @param inclusive Whether or not an entry with key from is kept.
+	 */
+	@Override
+	public Bst<K,V> tailTree(K from, boolean inclusive) {
+		/*
+		 * This is the mirror image of headTree().
+		 */
+		int comparison = this.smallest.getKey().compareTo(from);
+		if(comparison > 0 || (comparison == 0 && inclusive)) {
+			return this;
+		}
+		comparison = this.getRootKey().compareTo(from);
+		if(comparison > 0 || (comparison == 0 && inclusive)) {
+			return new Fork<K,V>(this.root, this.left.tailTree(from, inclusive), this.right);
+		}
+		return this.right.tailTree(from, inclusive);
+	}
+
+	/**
+	 * Returns the entry with the largest key smaller than or equal to k, if it exists.
+	 * 
+	 * @return The floor entry of k, or Optional.empty() if every key is bigger than k.
+	 * @param k The key to search for.
+	 */
+	@Override
+	public Optional<Entry<K,V>> floorEntry(K k) {
+		return nearest(this, k, true, true);
+	}
+
+	/**
+	 * Returns the entry with the smallest key bigger than or equal to k, if it exists.
+	 * 
+	 * @return The ceiling entry of k, or Optional.empty() if every key is smaller than k.
+	 * @param k The key to search for.
+	 */
+	@Override
+	public Optional<Entry<K,V>> ceilingEntry(K k) {
+		return nearest(this, k, false, true);
+	}
+
+	/**
+	 * Returns the entry with the largest key strictly smaller than k, if it exists.
+	 * 
+	 * @return The lower entry of k, or Optional.empty() if no key is smaller than k.
+	 * @param k The key to search for.
+	 */
+	@Override
+	public Optional<Entry<K,V>> lowerEntry(K k) {
+		return nearest(this, k, true, false);
+	}
+
+	/**
+	 * Returns the entry with the smallest key strictly bigger than k, if it exists.
+	 * 
+	 * @return The higher entry of k, or Optional.empty() if no key is bigger than k.
+	 * @param k The key to search for.
+	 */
+	@Override
+	public Optional<Entry<K,V>> higherEntry(K k) {
+		return nearest(this, k, false, false);
+	}
+
+	/**
+	 * Does the work for floorEntry(), ceilingEntry(), lowerEntry() and higherEntry().
+	 * 
+	 * This is a single descent from the root, with one comparison per level. On
+	 * the way down we remember the last entry that was on the right side of k
+	 * (below it if "below", otherwise above it) : each one we meet is closer to k
+	 * than the one before, so when we fall off the bottom of the tree, it's the
+	 * answer.
+	 */
+	private static <K extends Comparable<K>,V> Optional<Entry<K,V>> nearest(Bst<K,V> t, K k, boolean below, boolean inclusive) {
+		Entry<K,V> best = null;
+		while(t instanceof Fork) {
+			Fork<K,V> f = (Fork<K,V>) t;
+			int comparison = k.compareTo(f.getRootKey());
+			if(comparison == 0 && inclusive) {
+				return Optional.of(f.root);
+			}
+			if(below) {
+				if(comparison > 0) {
+					best = f.root;
+					t = f.right;
+				}
+				else {
+					t = f.left;
+				}
+			}
+			else {
+				if(comparison < 0) {
+					best = f.root;
+					t = f.left;
+				}
+				else {
+					t = f.right;
+				}
+			}
+		}
+		return Optional.ofNullable(best);
+	}
 }
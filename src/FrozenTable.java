@@ -0,0 +1,241 @@
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * A read-only snapshot of a table, laid out for fast lookups.
+ *
+ * The keys and values are kept in two flat arrays in Eytzinger (BFS)
+ * order : position 1 holds the root, and the branches of position i are
+ * at positions 2i and 2i+1. There are no Fork or Entry objects to chase,
+ * the top levels of the tree share a few cache lines, and a lookup is a
+ * loop of index arithmetic,
+ *
+ *     i = 2i + (keys[i] < k ? 1 : 0)
+ *
+ * with no branch on which way to go. Make one with BstTable.freeze().
+ *
+ * put() and remove() still work, but as with any immutable table they
+ * return a new table ; here that is a BstTable built from this one in
+ * O(n), so they are only meant for the occasional change.
+ */
+public class FrozenTable<K extends Comparable<K>,V> implements Table<K,V> {
+
+	/*
+	 * keys[i] and values[i] for 1 <= i <= size. Position 0 isn't used.
+	 */
+	private final Object[] keys;
+	private final Object[] values;
+	private final int size;
+
+	/**
+	 * Creates a frozen copy of tree. This takes O(n).
+	 *
+	 * @param tree The tree to copy.
+	 */
+	public FrozenTable(Bst<K,V> tree) {
+		this.size = tree.size();
+		this.keys = new Object[this.size + 1];
+		this.values = new Object[this.size + 1];
+		fill(tree.iterator(), 1);
+	}
+
+	/**
+	 * Fills in the subtree at position i from the sorted entries, by doing an
+	 * in-order walk over the positions (left branch, then i, then right branch).
+	 */
+	private void fill(Iterator<Entry<K,V>> entries, int i) {
+		if(i > this.size) return;
+		fill(entries, 2 * i);
+		Entry<K,V> e = entries.next();
+		this.keys[i] = e.getKey();
+		this.values[i] = e.getValue();
+		fill(entries, 2 * i + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private K key(int i) {
+		return (K) this.keys[i];
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int i) {
+		return (V) this.values[i];
+	}
+
+	/**
+	 * Finds the position of k, or 0 if it isn't there.
+	 *
+	 * The loop goes all the way down to the bottom of the tree, always
+	 * moving to the right branch if the key there is smaller than k, so it
+	 * ends up at the position just after the smallest key >= k. The trailing
+	 * 1 bits of i count how many times we went right at the end, so shifting
+	 * them (and one more bit) off takes us back up to that key.
+	 */
+	private int position(K k) {
+		int i = 1;
+		while(i <= this.size) {
+			i = 2 * i + ((key(i).compareTo(k) < 0) ? 1 : 0);
+		}
+		i = i >> (Integer.numberOfTrailingZeros(~i) + 1);
+		return (i != 0 && key(i).compareTo(k) == 0) ? i : 0;
+	}
+
+	@Override
+	public boolean containsKey(K k) {
+		return position(k) != 0;
+	}
+
+	@Override
+	public Optional<V> get(K k) {
+		int i = position(k);
+		return (i == 0) ? Optional.empty() : Optional.of(value(i));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns a new BstTable with the entries of this table and k:v.
+	 */
+	@Override
+	public Table<K,V> put(K k, V v) {
+		return thaw().put(k, v);
+	}
+
+	/**
+	 * Returns a new BstTable with the entries of this table except k, or
+	 * Optional.empty() if k isn't in the table.
+	 */
+	@Override
+	public Optional<Table<K,V>> remove(K k) {
+		if(!containsKey(k)) {
+			return Optional.empty();
+		}
+		return thaw().remove(k);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Iterator<Entry<K,V>> entries = FrozenTable.this.iterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public V next() {
+						return entries.next().getValue();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return FrozenTable.this.size;
+			}
+		};
+	}
+
+	@Override
+	public Collection<K> keys() {
+		return new AbstractCollection<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				Iterator<Entry<K,V>> entries = FrozenTable.this.iterator();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public K next() {
+						return entries.next().getKey();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return FrozenTable.this.size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the entries in key order, by walking the positions in order.
+	 *
+	 * @return An iterator over the entries.
+	 */
+	public Iterator<Entry<K,V>> iterator() {
+		return new Iterator<Entry<K,V>>() {
+			/*
+			 * Start at the left-most position.
+			 */
+			private int i = leftmost(1);
+
+			@Override
+			public boolean hasNext() {
+				return this.i != 0;
+			}
+
+			@Override
+			public Entry<K,V> next() {
+				if(this.i == 0) {
+					throw new NoSuchElementException();
+				}
+				Entry<K,V> e = new Entry<K,V>(key(this.i), value(this.i));
+				/*
+				 * The next position is the left-most one of the right branch, if
+				 * there is one. Otherwise, go up past every position we are the
+				 * right branch of (odd positions), and then up once more.
+				 */
+				if(2 * this.i + 1 <= FrozenTable.this.size) {
+					this.i = leftmost(2 * this.i + 1);
+				}
+				else {
+					this.i = this.i >> (Integer.numberOfTrailingZeros(~this.i) + 1);
+				}
+				return e;
+			}
+		};
+	}
+
+	private int leftmost(int i) {
+		if(i > this.size) return 0;
+		while(2 * i <= this.size) i = 2 * i;
+		return i;
+	}
+
+	/**
+	 * Converts this table back in to a balanced tree, in O(n).
+	 *
+	 * @return A tree of minimal height with the entries of this table.
+	 */
+	public Bst<K,V> toBst() {
+		return thaw().getTree();
+	}
+
+	/**
+	 * Converts this table back in to a BstTable, in O(n).
+	 *
+	 * @return A BstTable with the entries of this table.
+	 */
+	public BstTable<K,V> thaw() {
+		return BstTable.fromSorted(iterator(), this.size);
+	}
+}
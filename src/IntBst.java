@@ -0,0 +1,48 @@
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * A version of Bst specialised for int keys.
+ *
+ * Keys are stored unboxed in the nodes (there is no Entry and no Integer),
+ * and are compared with plain int comparisons rather than compareTo().
+ * The composite pattern is the same as for Bst : IntEmpty is the empty
+ * tree and IntFork is a node with two branches. Trees are immutable.
+ */
+public interface IntBst<Value> {
+  public boolean                    isEmpty();
+  public boolean                    smaller(int k);
+  public boolean                    bigger(int k);
+  public boolean                    has(int k);
+  public Optional<Value>            find(int k);
+  public Value                      findOrDefault(int k, Value otherwise);
+  public IntBst<Value>               put(int k, Value v);
+  public Optional<IntBst<Value>>     delete(int k);
+  public OptionalInt                 smallestKey();
+  public OptionalInt                 largestKey();
+  public int                        size();
+  public int                        height();
+  public int                        saveInOrder(int[] keys, Object[] values, int i);
+  public IntBst<Value>               balanced();
+}
+
+/*
+   The methods mean the same as those of Bst, except for :
+
+   -------------------------------------------------------------------
+   Value findOrDefault(int k, Value otherwise);
+
+      Returns the value of k, or otherwise if k isn't in the tree. This
+      doesn't allocate anything, unlike find().
+
+   -------------------------------------------------------------------
+   OptionalInt smallestKey(), largestKey();
+
+      The smallest and largest keys, if the tree isn't empty.
+
+   -------------------------------------------------------------------
+   int saveInOrder(int[] keys, Object[] values, int i);
+
+      Save the keys and values in key order, in to the two arrays
+      starting at position i, and return the next available position.
+ */
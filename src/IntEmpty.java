@@ -0,0 +1,160 @@
+import java.util.Optional;
+import java.util.OptionalInt;
+
+public class IntEmpty<V> implements IntBst<V> {
+
+	/**
+	 * The one shared empty tree (see Empty.empty()).
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final IntEmpty EMPTY = new IntEmpty();
+
+	/**
+	 * Nothing to do in the constructor.
+	 * 
+	 * Prefer IntEmpty.empty(), which doesn't allocate.
+	 */
+	public IntEmpty(){}
+
+	/**
+	 * Returns the shared empty tree, used for every leaf.
+	 * 
+	 * @return The shared, typed, empty tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> IntEmpty<V> empty() {
+		return (IntEmpty<V>) EMPTY;
+	}
+
+	/**
+	 * Always returns true because an Empty
+	 * BST is always Empty.
+	 */
+	@Override
+	public boolean isEmpty() {
+		return true;
+	}
+
+	/**
+	 * Always returns true because there are
+	 * no nodes in an Empty BST.
+	 */
+	@Override
+	public boolean smaller(int k) {
+		return true;
+	}
+
+	/**
+	 * Always returns true because there are
+	 * no nodes in an Empty BST.
+	 */
+	@Override
+	public boolean bigger(int k) {
+		return true;
+	}
+
+	/**
+	 * Always returns false because an Empty
+	 * BST will never contain the key, k.
+	 */
+	@Override
+	public boolean has(int k) {
+		return false;
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there
+	 * are never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<V> find(int k) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Always return otherwise, because there
+	 * are never nodes in an Empty BST.
+	 */
+	@Override
+	public V findOrDefault(int k, V otherwise) {
+		return otherwise;
+	}
+
+	/**
+	 * Return a Fork with just a root, consisting
+	 * of the key:value pair: k:v.
+	 */
+	@Override
+	public IntBst<V> put(int k, V v) {
+		return new IntFork<V>(k, v, IntEmpty.<V>empty(), IntEmpty.<V>empty());
+	}
+
+	/** 
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<IntBst<V>> delete(int k) {
+		return Optional.empty();
+	}
+
+	/** 
+	 * There is no smallest key in an Empty BST.
+	 */
+	@Override
+	public OptionalInt smallestKey() {
+		return OptionalInt.empty();
+	}
+
+	/** 
+	 * There is no largest key in an Empty BST.
+	 */
+	@Override
+	public OptionalInt largestKey() {
+		return OptionalInt.empty();
+	}
+
+	/**
+	 * Just prints "Empty".
+	 */
+	public String toString() {
+		return "Empty";
+	}
+
+	/**
+	 * Always returns 0, because the Empty
+	 * BST contains 0 nodes.
+	 */
+	@Override
+	public int size() {
+		return 0;
+	}
+
+	/**
+	 * Always returns -1, because an Empty
+	 * BST has a height of -1.
+	 */
+	@Override
+	public int height() {
+		return -1;
+	}
+
+	/**
+	 * Nothing is added to the arrays, so always return i.
+	 */
+	@Override
+	public int saveInOrder(int[] keys, Object[] values, int i) {
+		return i;
+	}
+
+	/**
+	 * Always returns this Empty BST because
+	 * the Empty BST is always balanced.
+	 */
+	@Override
+	public IntBst<V> balanced() {
+		return this;
+	}
+}
@@ -0,0 +1,48 @@
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * A version of Bst specialised for long keys.
+ *
+ * Keys are stored unboxed in the nodes (there is no Entry and no Long),
+ * and are compared with plain long comparisons rather than compareTo().
+ * The composite pattern is the same as for Bst : LongEmpty is the empty
+ * tree and LongFork is a node with two branches. Trees are immutable.
+ */
+public interface LongBst<Value> {
+  public boolean                    isEmpty();
+  public boolean                    smaller(long k);
+  public boolean                    bigger(long k);
+  public boolean                    has(long k);
+  public Optional<Value>            find(long k);
+  public Value                      findOrDefault(long k, Value otherwise);
+  public LongBst<Value>               put(long k, Value v);
+  public Optional<LongBst<Value>>     delete(long k);
+  public OptionalLong                 smallestKey();
+  public OptionalLong                 largestKey();
+  public int                        size();
+  public int                        height();
+  public int                        saveInOrder(long[] keys, Object[] values, int i);
+  public LongBst<Value>               balanced();
+}
+
+/*
+   The methods mean the same as those of Bst, except for :
+
+   -------------------------------------------------------------------
+   Value findOrDefault(long k, Value otherwise);
+
+      Returns the value of k, or otherwise if k isn't in the tree. This
+      doesn't allocate anything, unlike find().
+
+   -------------------------------------------------------------------
+   OptionalLong smallestKey(), largestKey();
+
+      The smallest and largest keys, if the tree isn't empty.
+
+   -------------------------------------------------------------------
+   int saveInOrder(long[] keys, Object[] values, int i);
+
+      Save the keys and values in key order, in to the two arrays
+      starting at position i, and return the next available position.
+ */
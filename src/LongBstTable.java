@@ -0,0 +1,246 @@
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * A version of BstTable specialised for long keys, backed by a LongBst.
+ *
+ * It implements Table<Long,V>, so it can be used anywhere a Table can,
+ * but it also has overloads of containsKey(), get(), put() and remove()
+ * which take a plain long, so that callers who have an unboxed key never
+ * need to box it.
+ */
+public class LongBstTable<V> implements Table<Long,V> {
+
+	private final LongBst<V> table;
+
+	/**
+	 * Creates a new, empty, table.
+	 */
+	public LongBstTable() {
+		this.table = LongEmpty.<V>empty();
+	}
+
+	/**
+	 * Creates a new table with the given tree.
+	 * 
+	 * @param tree The tree to use.
+	 */
+	public LongBstTable(LongBst<V> tree) {
+		this.table = tree;
+	}
+
+	/**
+	 * Returns whether or not the table contains key k, without boxing it.
+	 * 
+	 * @param k The key to check.
+	 * @return Whether or not the table contains k.
+	 */
+	public boolean containsKey(long k) {
+		return this.table.has(k);
+	}
+
+	@Override
+	public boolean containsKey(Long k) {
+		return this.table.has(k);
+	}
+
+	/**
+	 * Returns the value of key k, if it exists, without boxing k.
+	 * 
+	 * @param k The key to search for.
+	 * @return The value of k, or Optional.empty() if k isn't in the table.
+	 */
+	public Optional<V> get(long k) {
+		return this.table.find(k);
+	}
+
+	@Override
+	public Optional<V> get(Long k) {
+		return this.table.find(k);
+	}
+
+	/**
+	 * Returns the value of key k, or otherwise if k isn't in the table. This
+	 * neither boxes k nor allocates an Optional.
+	 * 
+	 * @param k The key to search for.
+	 * @param otherwise The value to return if k isn't in the table.
+	 * @return The value of k, or otherwise.
+	 */
+	public V getOrDefault(long k, V otherwise) {
+		return this.table.findOrDefault(k, otherwise);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.table.isEmpty();
+	}
+
+	/**
+	 * Returns a new table with the key:value pair, k:v, added or replaced,
+	 * without boxing k.
+	 * 
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 * @return A new table with the new entry.
+	 */
+	public LongBstTable<V> put(long k, V v) {
+		return new LongBstTable<V>(this.table.put(k, v));
+	}
+
+	@Override
+	public Table<Long,V> put(Long k, V v) {
+		return put(k.longValue(), v);
+	}
+
+	/**
+	 * Returns a new table with the entry with key k removed, or
+	 * Optional.empty() if there is no such entry, without boxing k.
+	 * 
+	 * @param k The key of the entry to remove.
+	 * @return A new table without k, or Optional.empty().
+	 */
+	public Optional<LongBstTable<V>> remove(long k) {
+		Optional<LongBst<V>> removed = this.table.delete(k);
+		return removed.isPresent() ? Optional.of(new LongBstTable<V>(removed.get())) : Optional.empty();
+	}
+
+	@Override
+	public Optional<Table<Long,V>> remove(Long k) {
+		Optional<LongBst<V>> removed = this.table.delete(k);
+		return removed.isPresent() ? Optional.of(new LongBstTable<V>(removed.get())) : Optional.empty();
+	}
+
+	@Override
+	public int size() {
+		return this.table.size();
+	}
+
+	/**
+	 * Returns the keys in the table, in order, as a plain array.
+	 * 
+	 * @return A new array of the keys.
+	 */
+	public long[] keyArray() {
+		long[] keys = new long[this.size()];
+		this.table.saveInOrder(keys, new Object[keys.length], 0);
+		return keys;
+	}
+
+	/**
+	 * Returns the values in the table, in key order.
+	 * 
+	 * This is a read-only view backed by the tree, so nothing is copied : the
+	 * values are found lazily as the collection is iterated over.
+	 * 
+	 * @return A collection containing all values in the table.
+	 */
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Nodes<V> nodes = new Nodes<V>(LongBstTable.this.table);
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return nodes.hasNext();
+					}
+					
+					@Override
+					public V next() {
+						return nodes.next().value;
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return LongBstTable.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Returns the keys in the table, in order.
+	 * 
+	 * This is a read-only view backed by the tree, so nothing is copied, and
+	 * contains() is a lookup in the tree rather than a scan. The keys are
+	 * kept unboxed, and only boxed as they are read.
+	 * 
+	 * @return A collection containing all keys in the table.
+	 */
+	@Override
+	public Collection<Long> keys() {
+		return new AbstractCollection<Long>() {
+			@Override
+			public Iterator<Long> iterator() {
+				Nodes<V> nodes = new Nodes<V>(LongBstTable.this.table);
+				return new Iterator<Long>() {
+					@Override
+					public boolean hasNext() {
+						return nodes.hasNext();
+					}
+					
+					@Override
+					public Long next() {
+						return nodes.next().key;
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return LongBstTable.this.size();
+			}
+			
+			@Override
+			public boolean contains(Object o) {
+				return (o instanceof Long) && LongBstTable.this.containsKey(((Long) o).longValue());
+			}
+		};
+	}
+
+	/**
+	 * A lazy in-order iterator over the nodes of a LongBst, which keeps a
+	 * stack of the nodes whose key hasn't been returned yet, as BstIterator
+	 * does for a Bst.
+	 */
+	private static final class Nodes<V> implements Iterator<LongFork<V>> {
+		private final ArrayDeque<LongFork<V>> stack = new ArrayDeque<LongFork<V>>();
+
+		Nodes(LongBst<V> tree) {
+			pushLeft(tree);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !this.stack.isEmpty();
+		}
+
+		@Override
+		public LongFork<V> next() {
+			if(this.stack.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			LongFork<V> next = this.stack.pop();
+			pushLeft(next.right);
+			return next;
+		}
+
+		/**
+		 * Pushes t and then its left-most path on to the stack.
+		 */
+		private void pushLeft(LongBst<V> t) {
+			while(t instanceof LongFork) {
+				LongFork<V> f = (LongFork<V>) t;
+				this.stack.push(f);
+				t = f.left;
+			}
+		}
+	}
+}
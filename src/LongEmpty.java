@@ -0,0 +1,160 @@
+import java.util.Optional;
+import java.util.OptionalLong;
+
+public class LongEmpty<V> implements LongBst<V> {
+
+	/**
+	 * The one shared empty tree (see Empty.empty()).
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final LongEmpty EMPTY = new LongEmpty();
+
+	/**
+	 * Nothing to do in the constructor.
+	 * 
+	 * Prefer LongEmpty.empty(), which doesn't allocate.
+	 */
+	public LongEmpty(){}
+
+	/**
+	 * Returns the shared empty tree, used for every leaf.
+	 * 
+	 * @return The shared, typed, empty tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> LongEmpty<V> empty() {
+		return (LongEmpty<V>) EMPTY;
+	}
+
+	/**
+	 * Always returns true because an Empty
+	 * BST is always Empty.
+	 */
+	@Override
+	public boolean isEmpty() {
+		return true;
+	}
+
+	/**
+	 * Always returns true because there are
+	 * no nodes in an Empty BST.
+	 */
+	@Override
+	public boolean smaller(long k) {
+		return true;
+	}
+
+	/**
+	 * Always returns true because there are
+	 * no nodes in an Empty BST.
+	 */
+	@Override
+	public boolean bigger(long k) {
+		return true;
+	}
+
+	/**
+	 * Always returns false because an Empty
+	 * BST will never contain the key, k.
+	 */
+	@Override
+	public boolean has(long k) {
+		return false;
+	}
+
+	/**
+	 * Always return an empty instance of
+	 * the Optional class, because there
+	 * are never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<V> find(long k) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Always return otherwise, because there
+	 * are never nodes in an Empty BST.
+	 */
+	@Override
+	public V findOrDefault(long k, V otherwise) {
+		return otherwise;
+	}
+
+	/**
+	 * Return a Fork with just a root, consisting
+	 * of the key:value pair: k:v.
+	 */
+	@Override
+	public LongBst<V> put(long k, V v) {
+		return new LongFork<V>(k, v, LongEmpty.<V>empty(), LongEmpty.<V>empty());
+	}
+
+	/** 
+	 * Always return an empty instance of
+	 * the Optional class, because there are
+	 * never nodes in an Empty BST.
+	 */
+	@Override
+	public Optional<LongBst<V>> delete(long k) {
+		return Optional.empty();
+	}
+
+	/** 
+	 * There is no smallest key in an Empty BST.
+	 */
+	@Override
+	public OptionalLong smallestKey() {
+		return OptionalLong.empty();
+	}
+
+	/** 
+	 * There is no largest key in an Empty BST.
+	 */
+	@Override
+	public OptionalLong largestKey() {
+		return OptionalLong.empty();
+	}
+
+	/**
+	 * Just prints "Empty".
+	 */
+	public String toString() {
+		return "Empty";
+	}
+
+	/**
+	 * Always returns 0, because the Empty
+	 * BST contains 0 nodes.
+	 */
+	@Override
+	public int size() {
+		return 0;
+	}
+
+	/**
+	 * Always returns -1, because an Empty
+	 * BST has a height of -1.
+	 */
+	@Override
+	public int height() {
+		return -1;
+	}
+
+	/**
+	 * Nothing is added to the arrays, so always return i.
+	 */
+	@Override
+	public int saveInOrder(long[] keys, Object[] values, int i) {
+		return i;
+	}
+
+	/**
+	 * Always returns this Empty BST because
+	 * the Empty BST is always balanced.
+	 */
+	@Override
+	public LongBst<V> balanced() {
+		return this;
+	}
+}
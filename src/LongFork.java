@@ -0,0 +1,286 @@
+import java.util.Optional;
+import java.util.OptionalLong;
+
+public class LongFork<V> implements LongBst<V> {
+
+	protected final long key;
+	protected final V value;
+	protected final LongBst<V> left, right;
+	private final long smallest, largest;
+	private final int size, height;
+
+	/**
+	 * Creates a new instance of the LongFork class,
+	 * ensuring that neither branch is null and
+	 * the new Fork wouldn't violate the BST
+	 * property.
+	 * @param key The key for the root of the BST.
+	 * @param value The value for the root of the BST.
+	 * @param left The left branch for the BST.
+	 * @param right The right branch for the BST.
+	 */
+	public LongFork(long key, V value, LongBst<V> left, LongBst<V> right) {
+
+		assert(left != null && right != null); //Neither of the branches should be null.
+
+		assert(left.smaller(key) && right.bigger(key)); //Don't violate the BST property.
+
+		this.key = key;
+		this.value = value;
+		this.left = left;
+		this.right = right;
+
+		/*
+		 * As in Fork, work out the smallest and largest keys and the size and
+		 * height once, here.
+		 */
+		this.smallest = (left instanceof LongFork) ? ((LongFork<V>) left).smallest : key;
+		this.largest = (right instanceof LongFork) ? ((LongFork<V>) right).largest : key;
+		this.size = 1 + left.size() + right.size();
+		int leftHeight = left.height();
+		int rightHeight = right.height();
+		this.height = 1 + ((leftHeight > rightHeight) ? leftHeight : rightHeight);
+	}
+
+	/**
+	 * Returns the key of the root of the current tree.
+	 * 
+	 * @return The key of the root of this tree.
+	 */
+	public long getRootKey() {
+		return this.key;
+	}
+
+	/**
+	 * Always return false, because a Fork
+	 * will always have at least a root
+	 * node.
+	 */
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+
+	/**
+	 * Does every node have it's key smaller than k? Takes O(1).
+	 */
+	@Override
+	public boolean smaller(long k) {
+		return this.largest < k;
+	}
+
+	/**
+	 * Does every node have it's key bigger than k? Takes O(1).
+	 */
+	@Override
+	public boolean bigger(long k) {
+		return this.smallest > k;
+	}
+
+	/**
+	 * Does the key, k, occur in this tree?
+	 * 
+	 * This is a single descent, with one long comparison per level.
+	 *
+	 * @return Whether or not the key, k, occurs in the tree.
+	 * @param k The key to search for.
+	 */
+	@Override
+	public boolean has(long k) {
+		LongBst<V> t = this;
+		while(t instanceof LongFork) {
+			LongFork<V> f = (LongFork<V>) t;
+			if(k < f.key) {
+				t = f.left;
+			}
+			else if(k > f.key) {
+				t = f.right;
+			}
+			else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the value of the node with a given key, k, if it exists.
+	 * 
+	 * @return The value of the node with key, k, or Optional.empty() if no such key exists.
+	 * @param k The key to search for the value of.
+	 */
+	@Override
+	public Optional<V> find(long k) {
+		LongBst<V> t = this;
+		while(t instanceof LongFork) {
+			LongFork<V> f = (LongFork<V>) t;
+			if(k < f.key) {
+				t = f.left;
+			}
+			else if(k > f.key) {
+				t = f.right;
+			}
+			else {
+				return Optional.of(f.value);
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Finds the value of the node with a given key, k, without allocating.
+	 * 
+	 * @return The value of the node with key, k, or otherwise if no such key exists.
+	 * @param k The key to search for the value of.
+	 * @param otherwise The value to return if k isn't in the tree.
+	 */
+	@Override
+	public V findOrDefault(long k, V otherwise) {
+		LongBst<V> t = this;
+		while(t instanceof LongFork) {
+			LongFork<V> f = (LongFork<V>) t;
+			if(k < f.key) {
+				t = f.left;
+			}
+			else if(k > f.key) {
+				t = f.right;
+			}
+			else {
+				return f.value;
+			}
+		}
+		return otherwise;
+	}
+
+	/**
+	 * Returns a copy of this tree with k:v inserted, or with the value of k
+	 * replaced if it is already there.
+	 * 
+	 * @return A copy of this tree with the new key:value pair, k:v, inserted.
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 */
+	@Override
+	public LongBst<V> put(long k, V v) {
+		if(k < this.key) {
+			return new LongFork<V>(this.key, this.value, this.left.put(k, v), this.right);
+		}
+		else if(k > this.key) {
+			return new LongFork<V>(this.key, this.value, this.left, this.right.put(k, v));
+		}
+		return new LongFork<V>(k, v, this.left, this.right);
+	}
+
+	/**
+	 * Returns a copy of the tree, in which the node k has been deleted,
+	 * or Optional.empty() if the key k doesn't occur in the tree.
+	 * 
+	 * @return A copy of this tree with key, k, deleted, or Optional.empty() if no such key exists.
+	 * @param k The key to delete from the tree.
+	 */
+	@Override
+	public Optional<LongBst<V>> delete(long k) {
+		if(k < this.key) {
+			Optional<LongBst<V>> left = this.left.delete(k);
+			if(!left.isPresent()) return Optional.empty();
+			return Optional.of(new LongFork<V>(this.key, this.value, left.get(), this.right));
+		}
+		else if(k > this.key) {
+			Optional<LongBst<V>> right = this.right.delete(k);
+			if(!right.isPresent()) return Optional.empty();
+			return Optional.of(new LongFork<V>(this.key, this.value, this.left, right.get()));
+		}
+		/*
+		 * We've found it. If either branch is empty, return the other one, and
+		 * otherwise replace the root with the largest node of the left branch.
+		 */
+		if(this.left.isEmpty()) {
+			return Optional.of(this.right);
+		}
+		else if(this.right.isEmpty()) {
+			return Optional.of(this.left);
+		}
+		LongFork<V> largest = (LongFork<V>) this.left;
+		while(largest.right instanceof LongFork) largest = (LongFork<V>) largest.right;
+		return Optional.of(new LongFork<V>(largest.key, largest.value, this.left.delete(largest.key).get(), this.right));
+	}
+
+	/**
+	 * The smallest key. Takes O(1).
+	 */
+	@Override
+	public OptionalLong smallestKey() {
+		return OptionalLong.of(this.smallest);
+	}
+
+	/**
+	 * The largest key. Takes O(1).
+	 */
+	@Override
+	public OptionalLong largestKey() {
+		return OptionalLong.of(this.largest);
+	}
+
+	/**
+	 * Counts how many values are stored in the tree. Takes O(1).
+	 */
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Gives the height of this tree. Takes O(1).
+	 */
+	@Override
+	public int height() {
+		return this.height;
+	}
+
+	/**
+	 * Save the keys and values in key order in to the two arrays, starting
+	 * at position i, and return the next available position.
+	 */
+	@Override
+	public int saveInOrder(long[] keys, Object[] values, int i) {
+		i = this.left.saveInOrder(keys, values, i);
+		keys[i] = this.key;
+		values[i++] = this.value;
+		return this.right.saveInOrder(keys, values, i);
+	}
+
+	/**
+	 * Returns a copy of this tree with minimal height, in O(n).
+	 */
+	@Override
+	public LongBst<V> balanced() {
+		long[] keys = new long[this.size];
+		Object[] values = new Object[this.size];
+		this.saveInOrder(keys, values, 0);
+		return balanceArrays(keys, values, 0, this.size);
+	}
+
+	/**
+	 * Builds a tree of minimal height from the sorted keys[start..end) and
+	 * their values, as Fork.balanceArray() does.
+	 */
+	static <V> LongBst<V> balanceArrays(long[] keys, Object[] values, int start, int end) {
+		if(start == end) return LongEmpty.<V>empty();
+		int middle = (start + end) >>> 1;
+		@SuppressWarnings("unchecked")
+		V value = (V) values[middle];
+		return new LongFork<V>(keys[middle], value, balanceArrays(keys, values, start, middle), balanceArrays(keys, values, middle + 1, end));
+	}
+
+	/**
+	 * @return The keys and values in key order.
+	 */
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		long[] keys = new long[this.size];
+		Object[] values = new Object[this.size];
+		this.saveInOrder(keys, values, 0);
+		for(int i = 0; i < this.size; i++) s.append(keys[i]).append(" : ").append(values[i]).append("\n");
+		return s.toString();
+	}
+}
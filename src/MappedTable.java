@@ -0,0 +1,388 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * A read-only table served straight from a snapshot file, which is
+ * memory-mapped rather than read in to memory.
+ *
+ * write() saves a BstTable in one pass over its entries, in key order,
+ * and open() maps the file back in. Opening a snapshot only reads its
+ * footer, so it takes the same time however big the table is; each
+ * lookup is then a binary search which decodes just the O(log n) keys it
+ * compares against, and the operating system pages in just the parts of
+ * the file that are used.
+ *
+ * The file format is :
+ *
+ *     "BSTS" (4 bytes), format version (4 bytes)
+ *     key 0, value 0, key 1, value 1, ...       (encoded by the Codecs)
+ *     offset of entry 0, offset of entry 1, ... (8 bytes each)
+ *     offset of the first offset (8 bytes), number of entries (4 bytes), "BSTS"
+ *
+ * Every number is big-endian. The offsets are in key order, so the i-th
+ * offset leads to the i-th smallest key, which is what the binary search
+ * and the range scans walk over.
+ *
+ * put() and remove() work, but they read the whole snapshot in to a new
+ * BstTable first. A whole file is mapped as one buffer, so a snapshot
+ * can't be bigger than 2GB. The mapping is released when the MappedTable
+ * is garbage collected. A MappedTable can be shared between threads.
+ */
+public class MappedTable<K extends Comparable<K>,V> implements Table<K,V> {
+
+	private static final int MAGIC = 0x42535453; // "BSTS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int FOOTER_SIZE = 16;
+
+	/*
+	 * The whole file. Reads never move its position; each one works on a
+	 * duplicate() instead, so that lookups can run at the same time.
+	 */
+	private final ByteBuffer buffer;
+	private final int index;
+	private final int size;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+
+	private MappedTable(ByteBuffer buffer, int index, int size, Codec<K> keyCodec, Codec<V> valueCodec) {
+		this.buffer = buffer;
+		this.index = index;
+		this.size = size;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+	}
+
+	/**
+	 * Writes a snapshot of table to file, replacing it if it exists. The
+	 * snapshot is written to a temporary file in the same directory, synced,
+	 * and then moved over file, so a crash never leaves half a snapshot. The
+	 * directory is synced after the move, so once this returns the new
+	 * snapshot survives a power loss.
+	 *
+	 * @param table The table to save.
+	 * @param file Where to save it.
+	 * @param keyCodec How to encode the keys.
+	 * @param valueCodec How to encode the values.
+	 * @throws IOException If the file can't be written, or would be bigger than 2GB.
+	 */
+	public static <K extends Comparable<K>,V> void write(BstTable<K,V> table, Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+
+				/*
+				 * The entries, remembering where each one starts.
+				 */
+				long[] offsets = new long[table.size()];
+				int i = 0;
+				for(Entry<K,V> e : table.entries()) {
+					offsets[i++] = out.size();
+					keyCodec.write(e.getKey(), out);
+					valueCodec.write(e.getValue(), out);
+				}
+
+				long index = out.size();
+				for(long offset : offsets) out.writeLong(offset);
+				out.writeLong(index);
+				out.writeInt(offsets.length);
+				out.writeInt(MAGIC);
+
+				/*
+				 * DataOutputStream stops counting at Integer.MAX_VALUE.
+				 */
+				if(out.size() == Integer.MAX_VALUE) {
+					throw new IOException("Snapshot is too big to map : " + file);
+				}
+				out.flush();
+				channel.force(true);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			syncDirectory(directory);
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Flushes a directory's entries to disk, so that a rename in to it
+	 * survives a power loss before anything that relies on it (such as
+	 * deleting the files the new one replaces) happens. Some platforms
+	 * (Windows) can't open a directory as a channel; there the rename is
+	 * left to the file system.
+	 *
+	 * @param directory The directory to sync.
+	 * @throws IOException If the directory was opened, but couldn't be synced.
+	 */
+	static void syncDirectory(Path directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		}
+		catch(IOException e) {
+			return;
+		}
+		try(FileChannel c = channel) {
+			c.force(true);
+		}
+	}
+
+	/**
+	 * Maps a snapshot written by write(). The codecs must be the ones it was
+	 * written with.
+	 *
+	 * @param file The snapshot.
+	 * @param keyCodec How the keys were encoded.
+	 * @param valueCodec How the values were encoded.
+	 * @return A table of the entries in the snapshot.
+	 * @throws IOException If the file can't be read, or isn't a snapshot.
+	 */
+	public static <K extends Comparable<K>,V> MappedTable<K,V> open(Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if(length > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot is too big to map : " + file);
+			}
+			if(length < HEADER_SIZE + FOOTER_SIZE) {
+				throw new IOException("Not a snapshot : " + file);
+			}
+
+			/*
+			 * The mapping stays valid after the channel is closed.
+			 */
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			int footer = (int) length - FOOTER_SIZE;
+			long index = buffer.getLong(footer);
+			int size = buffer.getInt(footer + 8);
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(footer + 12) != MAGIC
+			   || index < HEADER_SIZE || size < 0 || index + 8L * size != footer) {
+				throw new IOException("Not a snapshot : " + file);
+			}
+			if(buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported snapshot version " + buffer.getInt(4) + " : " + file);
+			}
+			return new MappedTable<K,V>(buffer, (int) index, size, keyCodec, valueCodec);
+		}
+	}
+
+	/**
+	 * A view of the buffer, positioned at the start of the i-th entry.
+	 */
+	private ByteBuffer at(int i) {
+		ByteBuffer view = this.buffer.duplicate();
+		view.position((int) this.buffer.getLong(this.index + 8 * i));
+		return view;
+	}
+
+	private K key(int i) {
+		return this.keyCodec.read(at(i));
+	}
+
+	private Entry<K,V> entry(int i) {
+		ByteBuffer view = at(i);
+		K k = this.keyCodec.read(view);
+		return new Entry<K,V>(k, this.valueCodec.read(view));
+	}
+
+	/**
+	 * Returns the position of the first key which is bigger than k (or equal
+	 * to k, if inclusive), or size if there isn't one.
+	 */
+	private int lowerBound(K k, boolean inclusive) {
+		int low = 0;
+		int high = this.size;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			int comparison = key(middle).compareTo(k);
+			if(comparison < 0 || (comparison == 0 && !inclusive)) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position of k, or -1 if it isn't there.
+	 */
+	private int position(K k) {
+		int i = lowerBound(k, true);
+		return (i < this.size && key(i).compareTo(k) == 0) ? i : -1;
+	}
+
+	@Override
+	public boolean containsKey(K k) {
+		return position(k) >= 0;
+	}
+
+	@Override
+	public Optional<V> get(K k) {
+		int i = lowerBound(k, true);
+		if(i == this.size) {
+			return Optional.empty();
+		}
+		ByteBuffer view = at(i);
+		if(this.keyCodec.read(view).compareTo(k) != 0) {
+			return Optional.empty();
+		}
+		return Optional.of(this.valueCodec.read(view));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns a new BstTable with the entries of this table and k:v. This
+	 * reads the whole snapshot.
+	 */
+	@Override
+	public Table<K,V> put(K k, V v) {
+		return toTable().put(k, v);
+	}
+
+	/**
+	 * Returns a new BstTable with the entries of this table except k, or
+	 * Optional.empty() if k isn't in the table. This reads the whole
+	 * snapshot.
+	 */
+	@Override
+	public Optional<Table<K,V>> remove(K k) {
+		if(!containsKey(k)) {
+			return Optional.empty();
+		}
+		return toTable().remove(k);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the entries with keys between from and to, in key order,
+	 * decoding each one as it is reached. A null bound means there is no
+	 * bound on that side.
+	 *
+	 * @param from The lower bound, or null.
+	 * @param fromInclusive Whether an entry with key from is included.
+	 * @param to The upper bound, or null.
+	 * @param toInclusive Whether an entry with key to is included.
+	 * @return An iterator over the entries in range.
+	 */
+	public Iterator<Entry<K,V>> scan(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		int start = (from == null) ? 0 : lowerBound(from, fromInclusive);
+		int end = (to == null) ? this.size : lowerBound(to, !toInclusive);
+		return new Iterator<Entry<K,V>>() {
+			private int i = start;
+
+			@Override
+			public boolean hasNext() {
+				return this.i < end;
+			}
+
+			@Override
+			public Entry<K,V> next() {
+				if(this.i >= end) {
+					throw new NoSuchElementException();
+				}
+				return entry(this.i++);
+			}
+		};
+	}
+
+	/**
+	 * Returns all of the entries, in key order.
+	 *
+	 * @return An iterator over the entries.
+	 */
+	public Iterator<Entry<K,V>> iterator() {
+		return scan(null, true, null, true);
+	}
+
+	/**
+	 * Reads the whole snapshot in to a BstTable of minimal height, in O(n).
+	 *
+	 * @return A BstTable with the entries of this table.
+	 */
+	public BstTable<K,V> toTable() {
+		return BstTable.fromSorted(iterator(), this.size);
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Iterator<Entry<K,V>> entries = MappedTable.this.iterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public V next() {
+						return entries.next().getValue();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return MappedTable.this.size;
+			}
+		};
+	}
+
+	@Override
+	public Collection<K> keys() {
+		return new AbstractCollection<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				return new Iterator<K>() {
+					private int i = 0;
+
+					@Override
+					public boolean hasNext() {
+						return this.i < MappedTable.this.size;
+					}
+
+					@Override
+					public K next() {
+						if(this.i >= MappedTable.this.size) {
+							throw new NoSuchElementException();
+						}
+						return key(this.i++);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return MappedTable.this.size;
+			}
+		};
+	}
+}
@@ -0,0 +1,341 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * A concurrent table split in to several independent shards, so that
+ * writers to different shards never contend.
+ *
+ * Each shard is a ConcurrentBstTable with a root of its own, and every
+ * key belongs to exactly one shard :
+ *
+ *  - byRange() splits the key space at a list of split points, so shard
+ *    i holds the keys from split i-1 (inclusive) to split i (exclusive).
+ *    An ordered scan just reads the shards that overlap the range, one
+ *    after the other.
+ *
+ *  - byHash() picks the shard from the key's hashCode(), which spreads
+ *    writers evenly whatever the keys are, but means every ordered scan
+ *    has to merge all of the shards.
+ *
+ * Reads and writes of a single key only touch its shard. keys(),
+ * values() and scan() stitch the shards together in key order, reading
+ * each shard as it is at the time the scan reaches it; they don't see a
+ * single point-in-time view across shards.
+ */
+public class ShardedTable<K extends Comparable<K>,V> {
+
+	private final ConcurrentBstTable<K,V>[] shards;
+
+	/*
+	 * The split points of a range-sharded table in increasing order, or null
+	 * for a hash-sharded one.
+	 */
+	private final List<K> splits;
+
+	private ShardedTable(int count, List<K> splits, ConcurrentBstTable.Mode mode) {
+		@SuppressWarnings("unchecked")
+		ConcurrentBstTable<K,V>[] shards = (ConcurrentBstTable<K,V>[]) new ConcurrentBstTable<?,?>[count];
+		for(int i = 0; i < count; i++) {
+			shards[i] = new ConcurrentBstTable<K,V>(AvlEmpty.<K,V>empty(), mode);
+		}
+		this.shards = shards;
+		this.splits = splits;
+	}
+
+	/**
+	 * Creates an empty table with splits.size() + 1 shards, split by key
+	 * range.
+	 *
+	 * @param splits The keys at which each new shard starts, in strictly increasing order.
+	 * @param mode How each shard installs changes.
+	 * @return The table.
+	 * @throws IllegalArgumentException If the split points aren't strictly increasing.
+	 */
+	public static <K extends Comparable<K>,V> ShardedTable<K,V> byRange(List<K> splits, ConcurrentBstTable.Mode mode) {
+		for(int i = 1; i < splits.size(); i++) {
+			if(splits.get(i - 1).compareTo(splits.get(i)) >= 0) {
+				throw new IllegalArgumentException("Split points must be strictly increasing");
+			}
+		}
+		return new ShardedTable<K,V>(splits.size() + 1, new ArrayList<K>(splits), mode);
+	}
+
+	/**
+	 * Creates an empty table with the given number of shards, split by the
+	 * hash codes of the keys.
+	 *
+	 * @param shards The number of shards.
+	 * @param mode How each shard installs changes.
+	 * @return The table.
+	 * @throws IllegalArgumentException If shards isn't positive.
+	 */
+	public static <K extends Comparable<K>,V> ShardedTable<K,V> byHash(int shards, ConcurrentBstTable.Mode mode) {
+		if(shards < 1) {
+			throw new IllegalArgumentException("A table needs at least one shard");
+		}
+		return new ShardedTable<K,V>(shards, null, mode);
+	}
+
+	/**
+	 * Returns the number of the shard which holds k.
+	 */
+	private int shardOf(K k) {
+		if(this.splits == null) {
+			int h = k.hashCode();
+			h ^= (h >>> 16); // As HashMap does, so that the high bits count too.
+			return Math.floorMod(h, this.shards.length);
+		}
+		/*
+		 * The number of split points <= k.
+		 */
+		int low = 0;
+		int high = this.splits.size();
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(this.splits.get(middle).compareTo(k) <= 0) low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return The number of shards.
+	 */
+	public int shards() {
+		return this.shards.length;
+	}
+
+	/**
+	 * Returns the value of k, if it is in the table.
+	 *
+	 * @param k The key to look up.
+	 * @return The value of k, or Optional.empty().
+	 */
+	public Optional<V> get(K k) {
+		return this.shards[shardOf(k)].get(k);
+	}
+
+	/**
+	 * Returns whether k is in the table.
+	 *
+	 * @param k The key to look up.
+	 * @return Whether k is in the table.
+	 */
+	public boolean containsKey(K k) {
+		return this.shards[shardOf(k)].containsKey(k);
+	}
+
+	/**
+	 * Inserts k:v, or replaces the value of k.
+	 *
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 */
+	public void put(K k, V v) {
+		this.shards[shardOf(k)].put(k, v);
+	}
+
+	/**
+	 * Removes k, if it is in the table.
+	 *
+	 * @param k The key to remove.
+	 */
+	public void remove(K k) {
+		this.shards[shardOf(k)].remove(k);
+	}
+
+	/**
+	 * Returns the number of entries in all of the shards.
+	 *
+	 * @return The number of entries.
+	 */
+	public int size() {
+		int size = 0;
+		for(ConcurrentBstTable<K,V> shard : this.shards) size += shard.size();
+		return size;
+	}
+
+	/**
+	 * Returns whether every shard is empty.
+	 *
+	 * @return Whether the table is empty.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the entries with keys between from and to, in key order. A
+	 * null bound means there is no bound on that side.
+	 *
+	 * @param from The lower bound, or null.
+	 * @param fromInclusive Whether an entry with key from is included.
+	 * @param to The upper bound, or null.
+	 * @param toInclusive Whether an entry with key to is included.
+	 * @return An iterator over the entries in range.
+	 */
+	public Iterator<Entry<K,V>> scan(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		if(this.splits == null) {
+			return merge(from, fromInclusive, to, toInclusive);
+		}
+		int first = (from == null) ? 0 : shardOf(from);
+		int last = (to == null) ? this.shards.length - 1 : shardOf(to);
+		return new Iterator<Entry<K,V>>() {
+			private int shard = first;
+			private Iterator<Entry<K,V>> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while(!this.current.hasNext() && this.shard <= last) {
+					this.current = shards[this.shard++].snapshot().scan(from, fromInclusive, to, toInclusive);
+				}
+				return this.current.hasNext();
+			}
+
+			@Override
+			public Entry<K,V> next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return this.current.next();
+			}
+		};
+	}
+
+	/**
+	 * Merges the ranges of every shard with a priority queue holding the next
+	 * entry of each one (a k-way merge), which takes O(log shards) per entry.
+	 */
+	private Iterator<Entry<K,V>> merge(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		PriorityQueue<Head<K,V>> heads = new PriorityQueue<Head<K,V>>(this.shards.length);
+		for(ConcurrentBstTable<K,V> shard : this.shards) {
+			Iterator<Entry<K,V>> entries = shard.snapshot().scan(from, fromInclusive, to, toInclusive);
+			if(entries.hasNext()) heads.add(new Head<K,V>(entries.next(), entries));
+		}
+		return new Iterator<Entry<K,V>>() {
+			@Override
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public Entry<K,V> next() {
+				Head<K,V> head = heads.poll();
+				if(head == null) {
+					throw new NoSuchElementException();
+				}
+				Entry<K,V> e = head.entry;
+				if(head.rest.hasNext()) heads.add(new Head<K,V>(head.rest.next(), head.rest));
+				return e;
+			}
+		};
+	}
+
+	/**
+	 * The next entry of one shard, and the rest of its entries.
+	 */
+	private static final class Head<K extends Comparable<K>,V> implements Comparable<Head<K,V>> {
+		final Entry<K,V> entry;
+		final Iterator<Entry<K,V>> rest;
+
+		Head(Entry<K,V> entry, Iterator<Entry<K,V>> rest) {
+			this.entry = entry;
+			this.rest = rest;
+		}
+
+		@Override
+		public int compareTo(Head<K,V> other) {
+			return this.entry.getKey().compareTo(other.entry.getKey());
+		}
+	}
+
+	/**
+	 * Returns all of the entries, in key order.
+	 *
+	 * @return An iterator over the entries.
+	 */
+	public Iterator<Entry<K,V>> iterator() {
+		return scan(null, true, null, true);
+	}
+
+	/**
+	 * Returns the values of the table, in key order.
+	 *
+	 * @return A view of the values.
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Iterator<Entry<K,V>> entries = ShardedTable.this.iterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public V next() {
+						return entries.next().getValue();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ShardedTable.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Returns the keys of the table, in order.
+	 *
+	 * @return A view of the keys.
+	 */
+	public Collection<K> keys() {
+		return new AbstractCollection<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				Iterator<Entry<K,V>> entries = ShardedTable.this.iterator();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public K next() {
+						return entries.next().getKey();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ShardedTable.this.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				try {
+					@SuppressWarnings("unchecked")
+					K k = (K) o;
+					return o != null && containsKey(k);
+				}
+				catch(ClassCastException e) {
+					return false;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,317 @@
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * A mutable handle on a table which remembers its past versions, so that
+ * readers can look at the table as it was at any version still kept.
+ *
+ * Every put(), remove() or commit() makes a new tree, sharing everything
+ * it didn't change with the one before, and records it under the next
+ * version number (the empty table, or the tree the handle started with,
+ * is version 0). getAt(), scanAt() and at() read a given version. Nothing
+ * is ever copied for a reader, and readers never wait for writers : a
+ * version is an immutable tree, so a long scan of one is unaffected by
+ * the commits made while it runs.
+ *
+ * Keeping every version would keep every node ever made, so after each
+ * commit the handle drops the old versions that its Retention policy no
+ * longer wants, and their nodes become garbage once no one else refers
+ * to them. A reader which needs a version to outlive the policy can pin
+ * it. The latest version is always kept.
+ *
+ * Writers (and pin()) are serialised with a lock; reads take no locks.
+ */
+public class VersionedTable<K extends Comparable<K>,V> {
+
+	/**
+	 * Decides which old versions to keep.
+	 */
+	@FunctionalInterface
+	public interface Retention {
+		/**
+		 * Returns whether to keep a version which isn't the latest one.
+		 *
+		 * @param version The version number.
+		 * @param committed When the version was committed (System.currentTimeMillis()).
+		 * @param latest The latest version number.
+		 * @return Whether to keep the version.
+		 */
+		boolean retain(long version, long committed, long latest);
+
+		/**
+		 * Keeps every version.
+		 *
+		 * @return The policy.
+		 */
+		static Retention all() {
+			return (version, committed, latest) -> true;
+		}
+
+		/**
+		 * Keeps the latest count versions, including the current one.
+		 *
+		 * @param count The number of versions to keep.
+		 * @return The policy.
+		 */
+		static Retention last(int count) {
+			return (version, committed, latest) -> latest - version < count;
+		}
+
+		/**
+		 * Keeps the versions committed within the given time.
+		 *
+		 * @param age How long to keep each version.
+		 * @return The policy.
+		 */
+		static Retention within(Duration age) {
+			long millis = age.toMillis();
+			return (version, committed, latest) -> System.currentTimeMillis() - committed <= millis;
+		}
+	}
+
+	private final ConcurrentSkipListMap<Long,Version<K,V>> versions = new ConcurrentSkipListMap<Long,Version<K,V>>();
+	private final ConcurrentHashMap<Long,Integer> pins = new ConcurrentHashMap<Long,Integer>();
+	private final Retention retention;
+	private volatile Version<K,V> latest;
+
+	/**
+	 * Creates an empty table which keeps every version.
+	 */
+	public VersionedTable() {
+		this(AvlEmpty.<K,V>empty(), Retention.all());
+	}
+
+	/**
+	 * Creates a table whose version 0 is tree.
+	 *
+	 * @param tree The tree to start from.
+	 * @param retention Which old versions to keep.
+	 */
+	public VersionedTable(Bst<K,V> tree, Retention retention) {
+		this.retention = retention;
+		this.latest = new Version<K,V>(0, tree, System.currentTimeMillis());
+		this.versions.put(0L, this.latest);
+	}
+
+	/**
+	 * Returns the number of the latest version.
+	 *
+	 * @return The latest version.
+	 */
+	public long latestVersion() {
+		return this.latest.number;
+	}
+
+	/**
+	 * Returns the number of the oldest version still kept.
+	 *
+	 * @return The oldest version.
+	 */
+	public long oldestVersion() {
+		return this.versions.firstKey();
+	}
+
+	/**
+	 * Inserts k:v, or replaces the value of k, as a new version.
+	 *
+	 * @param k The key for the key:value pair.
+	 * @param v The value for the key:value pair.
+	 * @return The new version number.
+	 */
+	public long put(K k, V v) {
+		return commit(tree -> tree.put(k, v));
+	}
+
+	/**
+	 * Removes k as a new version. If k isn't there the new version has the
+	 * same entries as the last one.
+	 *
+	 * @param k The key to remove.
+	 * @return The new version number.
+	 */
+	public long remove(K k) {
+		return commit(tree -> tree.has(k) ? tree.delete(k).get() : tree);
+	}
+
+	/**
+	 * Records change(latest tree) as a new version, and then drops the old
+	 * versions the retention policy doesn't want.
+	 *
+	 * @param change Works out the new tree from the latest one.
+	 * @return The new version number.
+	 */
+	public synchronized long commit(UnaryOperator<Bst<K,V>> change) {
+		Version<K,V> next = new Version<K,V>(this.latest.number + 1, change.apply(this.latest.tree), System.currentTimeMillis());
+		this.versions.put(next.number, next);
+		this.latest = next;
+		prune();
+		return next.number;
+	}
+
+	/**
+	 * Drops old versions, from the oldest up, until one that the policy
+	 * keeps. Pinned versions are skipped over, but kept.
+	 */
+	private void prune() {
+		long latest = this.latest.number;
+		for(Iterator<Version<K,V>> i = this.versions.headMap(latest).values().iterator(); i.hasNext(); ) {
+			Version<K,V> version = i.next();
+			if(this.retention.retain(version.number, version.committed, latest)) {
+				break;
+			}
+			if(!this.pins.containsKey(version.number)) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the tree of the given version.
+	 */
+	private Bst<K,V> tree(long version) {
+		Version<K,V> v = this.versions.get(version);
+		if(v == null) {
+			if(version > this.latest.number || version < 0) {
+				throw new IllegalArgumentException("There is no version " + version);
+			}
+			throw new NoSuchElementException("Version " + version + " is no longer kept");
+		}
+		return v.tree;
+	}
+
+	/**
+	 * Returns the table as it was at the given version. The table is
+	 * immutable, and holds on to its nodes for as long as it is used, even
+	 * if the version is dropped afterwards.
+	 *
+	 * @param version The version to read.
+	 * @return The table at that version.
+	 * @throws NoSuchElementException If the version has been dropped.
+	 * @throws IllegalArgumentException If there is no such version.
+	 */
+	public BstTable<K,V> at(long version) {
+		return new BstTable<K,V>(tree(version));
+	}
+
+	/**
+	 * Returns the latest version of the table.
+	 *
+	 * @return The latest table.
+	 */
+	public BstTable<K,V> latest() {
+		return new BstTable<K,V>(this.latest.tree);
+	}
+
+	/**
+	 * Returns the value of k at the given version.
+	 *
+	 * @param version The version to read.
+	 * @param k The key to look up.
+	 * @return The value of k at that version, or Optional.empty().
+	 * @throws NoSuchElementException If the version has been dropped.
+	 * @throws IllegalArgumentException If there is no such version.
+	 */
+	public Optional<V> getAt(long version, K k) {
+		return tree(version).find(k);
+	}
+
+	/**
+	 * Returns the value of k in the latest version.
+	 *
+	 * @param k The key to look up.
+	 * @return The value of k, or Optional.empty().
+	 */
+	public Optional<V> get(K k) {
+		return this.latest.tree.find(k);
+	}
+
+	/**
+	 * Returns the entries with keys between from and to at the given
+	 * version, in key order. A null bound means there is no bound on that
+	 * side.
+	 *
+	 * @param version The version to read.
+	 * @param from The lower bound, or null.
+	 * @param fromInclusive Whether an entry with key from is included.
+	 * @param to The upper bound, or null.
+	 * @param toInclusive Whether an entry with key to is included.
+	 * @return An iterator over the entries in range.
+	 * @throws NoSuchElementException If the version has been dropped.
+	 * @throws IllegalArgumentException If there is no such version.
+	 */
+	public Iterator<Entry<K,V>> scanAt(long version, K from, boolean fromInclusive, K to, boolean toInclusive) {
+		return new BstIterator<K,V>(tree(version), from, fromInclusive, to, toInclusive);
+	}
+
+	/**
+	 * Keeps the given version until the returned pin is closed, whatever
+	 * the retention policy says.
+	 *
+	 *     try(VersionedTable.Pin pin = table.pin(v)) {
+	 *         ... table.getAt(v, k) ...
+	 *     }
+	 *
+	 * @param version The version to keep.
+	 * @return A pin, which releases the version when closed.
+	 * @throws NoSuchElementException If the version has already been dropped.
+	 * @throws IllegalArgumentException If there is no such version.
+	 */
+	public synchronized Pin pin(long version) {
+		tree(version);
+		this.pins.merge(version, 1, Integer::sum);
+		return new Pin(() -> unpin(version));
+	}
+
+	private void unpin(long version) {
+		this.pins.computeIfPresent(version, (v, count) -> (count == 1) ? null : count - 1);
+	}
+
+	/**
+	 * Returns the number of versions being kept.
+	 *
+	 * @return The number of versions.
+	 */
+	public int versions() {
+		return this.versions.size();
+	}
+
+	/**
+	 * A version being kept by pin(). Closing it more than once has no
+	 * further effect.
+	 */
+	public static final class Pin implements AutoCloseable {
+		private Runnable release;
+
+		private Pin(Runnable release) {
+			this.release = release;
+		}
+
+		@Override
+		public synchronized void close() {
+			if(this.release != null) {
+				this.release.run();
+				this.release = null;
+			}
+		}
+	}
+
+	/**
+	 * A committed tree, with its number and the time it was committed.
+	 */
+	private static final class Version<K extends Comparable<K>,V> {
+		final long number;
+		final Bst<K,V> tree;
+		final long committed;
+
+		Version(long number, Bst<K,V> tree, long committed) {
+			this.number = number;
+			this.tree = tree;
+			this.committed = committed;
+		}
+	}
+}